@@ -0,0 +1,142 @@
+package game2048.bench;
+
+/**
+ * JMH benchmarks for the hot paths of Board. Every benchmark runs on boards
+ * of several sizes and fill densities. Moves change the board, so the move
+ * benchmarks first restore a snapshot of the fresh board; reset measures
+ * that restore on its own, so it can be taken off the move numbers.
+ *
+ * Every density below 1.0 leaves a tile free, and isGameOver stops at the
+ * first free tile. At 1.0 the board is a checkerboard of two values, which
+ * has no free tile and no merge, so isGameOver has to compare every tile.
+ * Only move and canMove run once per direction.
+ *
+ * Run with: ant bench
+ */
+
+import game2048.Board;
+import game2048.BoardSnapshot;
+import game2048.Direction;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author David
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    // Board sizes to run on
+    @Param({"4", "8"})
+    public int size;
+
+    // Share of the tiles that are filled in
+    @Param({"0.25", "0.5", "0.9", "1.0"})
+    public double density;
+
+    // Board the benchmarks work on, and the tiles it is reset to
+    private Board board;
+    private BoardSnapshot fresh;
+
+    // Saved copy of the fresh board, for the loader benchmark
+    private File saved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(2048);
+        board = new Board(size, random);
+        byte[] cells = new byte[size * size];
+
+        // Fill in the wanted share of tiles with small, mixed values, or
+        // fill all of them without a single merge
+        for (int index = 0; index < cells.length; index++) {
+            if (density >= 1) {
+                cells[index] = (byte) (1 + (index / size + index % size) % 2);
+            } else if (random.nextDouble() < density) {
+                cells[index] = (byte) (1 + random.nextInt(6));
+            }
+        }
+        fresh = BoardSnapshot.of(size, cells, 0);
+        reset();
+
+        saved = File.createTempFile("bench", ".board");
+        board.saveBoard(saved.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        saved.delete();
+    }
+
+    @Benchmark
+    public byte[] reset() {
+        board.restore(fresh);
+        return board.getCells();
+    }
+
+    @Benchmark
+    public boolean move(Moves moves) {
+        reset();
+        return board.move(moves.direction);
+    }
+
+    @Benchmark
+    public boolean canMove(Moves moves) {
+        return board.canMove(moves.direction);
+    }
+
+    @Benchmark
+    public boolean isGameOver() {
+        return board.isGameOver();
+    }
+
+    @Benchmark
+    public byte[] addRandomTile() {
+        reset();
+        board.addRandomTile();
+        return board.getCells();
+    }
+
+    @Benchmark
+    public byte[] rotate() {
+        board.rotate(true);
+        return board.getCells();
+    }
+
+    @Benchmark
+    public Board loadBoard() throws IOException {
+        return new Board(saved.getPath(), new Random(2048));
+    }
+
+    /**
+     * Direction of the move benchmarks. It is kept apart from the board, so
+     * the benchmarks that don't move aren't run once per direction.
+     */
+    @State(Scope.Thread)
+    public static class Moves {
+
+        @Param({"UP", "DOWN", "LEFT", "RIGHT"})
+        public Direction direction;
+    }
+}
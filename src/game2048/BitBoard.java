@@ -0,0 +1,559 @@
+package game2048;
+
+/**
+ * Sample BitBoard
+ * <p/>
+ *   nibble index = row * 4 + column, lowest nibble first
+ * <p/>
+ *  0  1  2  3
+ *  4  5  6  7
+ *  8  9 10 11
+ * 12 13 14 15
+ * <p/>
+ *
+ * This class defines a packed 4x4 board for headless play. The whole board
+ * lives in a single long, where every tile is stored as its log2 exponent in
+ * 4 bits (0 is an empty tile, 1 is a 2, 2 is a 4, ...). Each 16 bit row is
+ * moved with one lookup into RowTable, and columns are moved by transposing
+ * the board first.
+ *
+ * The rows and columns follow the same layout as Board's grid, so the same
+ * Direction moves the same tiles, and with the same Random both boards spawn
+ * the same tiles in the same places. The only difference is that a tile can
+ * not grow past 2^15, since that is the largest exponent 4 bits can hold.
+ */
+
+import java.util.Random;
+
+/**
+ *
+ * @author David
+ */
+public class BitBoard {
+
+    // The packed board is always 4x4
+    public static final int GRID_SIZE = 4;
+
+    // Largest exponent a nibble can hold
+    public static final int MAX_EXPONENT = RowTable.MAX_EXPONENT;
+
+    // Packed tiles
+    private long board;
+
+    // Keep track of the game's score
+    private long score;
+
+    // Random number generator
+    private final Random random;
+
+    // Nibble index of the last spawned tile, or -1 if there is none
+    private int lastSpawn = -1;
+
+    // Merged nibbles of the last successful move
+    private int lastMerges;
+
+    /**
+     * Constructs a fresh board with random tiles.
+     *
+     * @param random random number generator
+     */
+    public BitBoard(Random random) {
+        this.random = random;
+
+        // Add starting tiles
+        int times = 0;
+        while (times++ < GameConstants.NUM_START_TILES) {
+            addRandomTile();
+        }
+    }
+
+    /**
+     * Constructs a board from already packed tiles.
+     *
+     * @param board packed tiles
+     * @param score starting score
+     * @param random random number generator
+     */
+    public BitBoard(long board, long score, Random random) {
+        this.board = board;
+        this.score = score;
+        this.random = random;
+    }
+
+    /**
+     * Packs a Board style grid of tile values. The grid must be 4x4 and
+     * hold no tile larger than 2^15.
+     *
+     * @param grid tile values, indexed like Board.getGrid()
+     * @return packed tiles
+     */
+    public static long fromGrid(int[][] grid) {
+        if (grid.length != GRID_SIZE) {
+            throw new IllegalArgumentException(
+                    "BitBoard only holds 4x4 boards, not " + grid.length);
+        }
+        long packed = 0;
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int tileVal = grid[row][column];
+                if (tileVal == 0) {
+                    continue;
+                }
+                int exponent = Integer.numberOfTrailingZeros(tileVal);
+                if (exponent > MAX_EXPONENT || Integer.bitCount(tileVal) != 1) {
+                    throw new IllegalArgumentException(
+                            "Tile " + tileVal + " can't be packed");
+                }
+                packed |= (long) exponent << ((row * GRID_SIZE + column) * 4);
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Checks whether the tiles of a Board can be packed: the board is 4x4
+     * and holds no tile larger than 2^15.
+     *
+     * @param cells tile exponents, indexed like Board.getCells()
+     * @return whether fromCells() takes the tiles
+     */
+    public static boolean canPack(byte[] cells) {
+        if (cells.length != GRID_SIZE * GRID_SIZE) {
+            return false;
+        }
+        for (byte exponent : cells) {
+            if (exponent < 0 || exponent > MAX_EXPONENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs the tile exponents of a Board. The board must be 4x4 and hold
+     * no tile larger than 2^15.
+     *
+     * @param cells tile exponents, indexed like Board.getCells()
+     * @return packed tiles
+     */
+    public static long fromCells(byte[] cells) {
+        if (cells.length != GRID_SIZE * GRID_SIZE) {
+            throw new IllegalArgumentException(
+                    "BitBoard only holds 4x4 boards, not " + cells.length
+                    + " tiles");
+        }
+        long packed = 0;
+        for (int index = 0; index < cells.length; index++) {
+            int exponent = cells[index];
+            if (exponent < 0 || exponent > MAX_EXPONENT) {
+                throw new IllegalArgumentException(
+                        "Tile 2^" + exponent + " can't be packed");
+            }
+            packed |= (long) exponent << (index * 4);
+        }
+        return packed;
+    }
+
+    /**
+     * Unpacks the tiles into a Board style grid of tile values.
+     *
+     * @param board packed tiles
+     * @param grid 4x4 grid to fill in
+     */
+    public static void toGrid(long board, int[][] grid) {
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int exponent = getExponent(board, row * GRID_SIZE + column);
+                grid[row][column] = exponent == 0 ? 0 : 1 << exponent;
+            }
+        }
+    }
+
+    /**
+     * Returns the exponent stored at a nibble index.
+     *
+     * @param board packed tiles
+     * @param index row * 4 + column
+     * @return exponent of the tile, 0 if empty
+     */
+    public static int getExponent(long board, int index) {
+        return (int) (board >>> (index * 4)) & MAX_EXPONENT;
+    }
+
+    /**
+     * Swaps rows and columns of the packed board.
+     *
+     * @param board packed tiles
+     * @return transposed tiles
+     */
+    public static long transpose(long board) {
+        long a1 = board & 0xF0F00F0FF0F00F0FL;
+        long a2 = board & 0x0000F0F00000F0F0L;
+        long a3 = board & 0x0F0F00000F0F0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00FF0000FF00FFL;
+        long b2 = a & 0x00FF00FF00000000L;
+        long b3 = a & 0x00000000FF00FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Returns the packed board under one of the 8 symmetries of
+     * BoardSnapshot.
+     *
+     * @param board packed tiles
+     * @param symmetry symmetry, 0 (unchanged) to 7
+     * @return transformed tiles
+     */
+    public static long transform(long board, int symmetry) {
+        if ((symmetry & 4) != 0) {
+            board = transpose(board);
+        }
+        if ((symmetry & 1) != 0) {
+            board = reverseRows(board);
+        }
+        if ((symmetry & 2) != 0) {
+            board = reverseColumns(board);
+        }
+        return board;
+    }
+
+    /**
+     * Returns the smallest of the 8 rotations and mirrorings of a packed
+     * board, compared unsigned. All 8 give the same result, so it can key
+     * caches that should treat them as one position.
+     *
+     * @param board packed tiles
+     * @return canonical tiles
+     */
+    public static long canonical(long board) {
+        long mirrored = reverseRows(board);
+        long transposed = transpose(board);
+        long transposedMirrored = reverseRows(transposed);
+        long smallest = min(board, mirrored);
+        smallest = min(smallest, reverseColumns(board));
+        smallest = min(smallest, reverseColumns(mirrored));
+        smallest = min(smallest, transposed);
+        smallest = min(smallest, transposedMirrored);
+        smallest = min(smallest, reverseColumns(transposed));
+        return min(smallest, reverseColumns(transposedMirrored));
+    }
+
+    private static long min(long a, long b) {
+        return Long.compareUnsigned(a, b) <= 0 ? a : b;
+    }
+
+    /**
+     * Moves a packed board without touching the score.
+     *
+     * @param board packed tiles
+     * @param direction direction specified by Direction class
+     * @return the moved board, equal to board if nothing moved
+     */
+    public static long move(long board, Direction direction) {
+        switch (direction) {
+            case UP:
+                return moveRows(board, true);
+            case DOWN:
+                return moveRows(board, false);
+            case LEFT:
+                return transpose(moveRows(transpose(board), true));
+            case RIGHT:
+                return transpose(moveRows(transpose(board), false));
+            default:
+                return board;
+        }
+    }
+
+    /**
+     * Returns the score a move would gain.
+     *
+     * @param board packed tiles
+     * @param direction direction specified by Direction class
+     * @return score gained by the move
+     */
+    public static int moveScore(long board, Direction direction) {
+        if (direction == Direction.LEFT || direction == Direction.RIGHT) {
+            board = transpose(board);
+        }
+        return RowTable.score((int) board & 0xFFFF)
+                + RowTable.score((int) (board >>> 16) & 0xFFFF)
+                + RowTable.score((int) (board >>> 32) & 0xFFFF)
+                + RowTable.score((int) (board >>> 48) & 0xFFFF);
+    }
+
+    /**
+     * Counts the empty tiles of a packed board.
+     *
+     * @param board packed tiles
+     * @return number of empty tiles
+     */
+    public static int countEmpty(long board) {
+        return Long.bitCount(emptyMask(board));
+    }
+
+    /**
+     * Finds the empty tiles of a packed board.
+     *
+     * @param board packed tiles
+     * @return the lowest bit of every empty tile's nibble
+     */
+    public static long emptyMask(long board) {
+
+        // Fold every nibble down to its lowest bit, set if the nibble is used
+        long used = board | (board >>> 1);
+        used |= used >>> 2;
+        return ~used & 0x1111111111111111L;
+    }
+
+    /**
+     * Check to see if a packed board has a game over.
+     *
+     * @param board packed tiles
+     * @return true if game over
+     */
+    public static boolean isGameOver(long board) {
+        return move(board, Direction.UP) == board
+                && move(board, Direction.DOWN) == board
+                && move(board, Direction.LEFT) == board
+                && move(board, Direction.RIGHT) == board;
+    }
+
+    /**
+     * Places a tile on the index'th empty space of a packed board, counting
+     * row first, column second.
+     *
+     * @param board packed tiles
+     * @param location which empty space to use, 0 based
+     * @param exponent exponent of the new tile
+     * @return board with the new tile
+     */
+    public static long placeTile(long board, int location, int exponent) {
+        for (int index = 0; index < GRID_SIZE * GRID_SIZE; index++) {
+            if (getExponent(board, index) == 0 && location-- == 0) {
+                return board | ((long) exponent << (index * 4));
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Adds a random tile (of value 2 or 4) to a random empty space on the
+     * board.
+     */
+    public final void addRandomTile() {
+        lastSpawn = -1;
+
+        // If there are no empty spaces, just exit
+        int count = countEmpty(board);
+        if (count == 0) {
+            return;
+        }
+
+        // Same draws as Board, so both boards play out the same game
+        int location = random.nextInt(count);
+        int exponent = random.nextInt(100) < GameConstants.TWO_PROBABILITY
+                ? 1 : 2;
+
+        long placed = placeTile(board, location, exponent);
+        lastSpawn = Long.numberOfTrailingZeros(placed ^ board) / 4;
+        board = placed;
+    }
+
+    /**
+     * Places a tile on an empty space, as if it was spawned there.
+     *
+     * @param index nibble index, row * 4 + column
+     * @param exponent exponent of the new tile
+     */
+    public void placeTile(int index, int exponent) {
+        if (getExponent(board, index) != 0) {
+            throw new IllegalStateException("Tile " + index
+                    + " is not empty");
+        }
+        board |= (long) exponent << (index * 4);
+        lastSpawn = index;
+    }
+
+    /**
+     * Performs a move operation.
+     *
+     * @param direction direction specified by Direction class
+     * @return successful move
+     */
+    public boolean move(Direction direction) {
+        long moved;
+        int merges;
+        switch (direction) {
+            case UP:
+                moved = moveRows(board, true);
+                merges = mergedRows(board, true);
+                break;
+            case DOWN:
+                moved = moveRows(board, false);
+                merges = mergedRows(board, false);
+                break;
+            case LEFT:
+                moved = transpose(moveRows(transpose(board), true));
+                merges = transposeMask(mergedRows(transpose(board), true));
+                break;
+            case RIGHT:
+                moved = transpose(moveRows(transpose(board), false));
+                merges = transposeMask(mergedRows(transpose(board), false));
+                break;
+            default:
+                return false;
+        }
+        if (moved == board) {
+            return false;
+        }
+        score += moveScore(board, direction);
+        lastMerges = merges;
+        board = moved;
+        return true;
+    }
+
+    /**
+     * Determine if we can move in a given direction.
+     *
+     * @param direction direction specified by Direction class
+     * @return we can move
+     */
+    public boolean canMove(Direction direction) {
+        return move(board, direction) != board;
+    }
+
+    /**
+     * Check to see if we have a game over.
+     *
+     * @return true if game over
+     */
+    public boolean isGameOver() {
+        return countEmpty(board) == 0 && isGameOver(board);
+    }
+
+    /**
+     * Replaces the tiles and the score, e.g. to go back to a snapshot.
+     *
+     * @param board packed tiles
+     * @param score new score
+     */
+    public void setBoard(long board, long score) {
+        this.board = board;
+        this.score = score;
+        lastSpawn = -1;
+        lastMerges = 0;
+    }
+
+    /**
+     * Rotates the board by 90 degrees clockwise or 90 degrees
+     * counter-clockwise, the same way as Board.rotate.
+     *
+     * @param rotateClockwise rotate the board clockwise or counter
+     */
+    public void rotate(boolean rotateClockwise) {
+
+        // A rotation is a transpose followed by flipping rows or columns
+        board = rotateClockwise ? reverseRows(transpose(board))
+                : transpose(reverseRows(board));
+    }
+
+    // Return the packed tiles
+    public long getBoard() {
+        return board;
+    }
+
+    // Return the score
+    public long getScore() {
+        return score;
+    }
+
+    // Return the nibble index of the last spawned tile, -1 if none
+    public int getLastSpawn() {
+        return lastSpawn;
+    }
+
+    // Return a bit per nibble index that got merged by the last move
+    public int getLastMerges() {
+        return lastMerges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder outputString = new StringBuilder();
+        outputString.append(String.format("Score: %d\n", score));
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int exponent = getExponent(board, row * GRID_SIZE + column);
+                outputString.append(exponent == 0 ? "    -"
+                        : String.format("%5d", 1 << exponent));
+            }
+            outputString.append("\n");
+        }
+        return outputString.toString();
+    }
+
+    /**
+     * Looks up every row of the board in the row table.
+     */
+    private static long moveRows(long board, boolean towardStart) {
+        return (long) slideRow((int) board & 0xFFFF, towardStart)
+                | (long) slideRow((int) (board >>> 16) & 0xFFFF,
+                        towardStart) << 16
+                | (long) slideRow((int) (board >>> 32) & 0xFFFF,
+                        towardStart) << 32
+                | (long) slideRow((int) (board >>> 48) & 0xFFFF,
+                        towardStart) << 48;
+    }
+
+    private static int slideRow(int row, boolean towardStart) {
+        return RowTable.result(towardStart ? RowTable.towardStart(row)
+                : RowTable.towardEnd(row));
+    }
+
+    /**
+     * Looks up the merged columns of every row, one bit per nibble index.
+     */
+    private static int mergedRows(long board, boolean towardStart) {
+        int merges = 0;
+        for (int row = 0; row < GRID_SIZE; row++) {
+            int packed = (int) (board >>> (row * 16)) & 0xFFFF;
+            merges |= RowTable.merges(towardStart
+                    ? RowTable.towardStart(packed)
+                    : RowTable.towardEnd(packed)) << (row * GRID_SIZE);
+        }
+        return merges;
+    }
+
+    /**
+     * Swaps rows and columns of a 16 bit per nibble index mask.
+     */
+    private static int transposeMask(int mask) {
+        int transposed = 0;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            transposed |= 1 << ((index % GRID_SIZE) * GRID_SIZE
+                    + index / GRID_SIZE);
+        }
+        return transposed;
+    }
+
+    /**
+     * Reverses the columns of every row of the board: swaps the outer
+     * nibbles of every row, then the inner ones.
+     */
+    private static long reverseRows(long board) {
+        return (board & 0xF000F000F000F000L) >>> 12
+                | (board & 0x0F000F000F000F00L) >>> 4
+                | (board & 0x00F000F000F000F0L) << 4
+                | (board & 0x000F000F000F000FL) << 12;
+    }
+
+    /**
+     * Reverses the order of the rows of the board.
+     */
+    private static long reverseColumns(long board) {
+        return board >>> 48 | (board >>> 16) & 0xFFFF0000L
+                | (board << 16) & 0xFFFF00000000L | board << 48;
+    }
+}
@@ -11,14 +11,20 @@ package game2048;
  * <p/>
  * 
  * This class defines the board for use in the 2048 game.
- * The board uses a 2D array to store its numbers. Numbers are manipulated
+ * The board stores the log2 exponent of every tile in one byte (0 is an
+ * empty tile), row first, so a tile takes a quarter of the memory of an
+ * int and still goes way past any int value. Numbers are manipulated
  * through moves using the arrow keys. The tiles move according to the arrow
- * keys, merging when the numbers match.
+ * keys, merging when the numbers match. The score is a long, so long
+ * automated games on large boards don't overflow it.
  */
 
+import game2048.io.BoardFile;
+import game2048.io.BoardFileReader;
+import game2048.io.SaveService;
 import java.util.*;
 import java.io.*;
-import java.awt.Point;
+import java.nio.file.Paths;
 
 /**
  *
@@ -26,18 +32,51 @@ import java.awt.Point;
  */
 public class Board {
 
-    // Grid instances
+    // Largest exponent a tile can merge into, so its value fits a long
+    public static final int MAX_EXPONENT = 62;
+
+    // Grid instances, exponent of every tile, index row * GRID_SIZE + column
     public final int GRID_SIZE;
-    private final int[][] grid;
+    private final byte[] cells;
 
     // Keep track of the game's score
-    private int score;
+    private long score;
     
     // Random number generator
     private final Random random;
     
-    // Array of old Point values
-    private String[][] newTiles;
+    // What happened to every tile in the last move, see TileEvent,
+    // index row * GRID_SIZE + column
+    private final byte[] tileEvents;
+
+    // Lookup table for lines of GRID_SIZE tiles, null if there is none
+    private final RowTable table;
+
+    // RowTable entries of every line, filled in by lookupLines
+    private final int[] lineEntries;
+
+    // Exponents of the line slideLines is working on, after the move
+    private final int[] slidLine;
+
+    // Number of empty tiles, kept up to date by every move and spawn
+    private int emptyCells;
+
+    // One bit per empty tile, index row * GRID_SIZE + column
+    private final long[] freeCells;
+
+    // One bit per tile changed since clearDirtyCells(), same index
+    private final long[] dirtyCells;
+
+    // Where the tiles of the last move went, only kept if set
+    private MoveTrace trace;
+
+    // Zobrist hash of the tiles, see Zobrist
+    private final Zobrist zobrist;
+    private long hash;
+
+    // Where the last random tile went (-1 if none) and its value
+    private int lastSpawnIndex = -1;
+    private int lastSpawnValue;
 
     /**
      * Constructs a fresh board with random tiles.
@@ -51,8 +90,15 @@ public class Board {
         this.random = random;
         GRID_SIZE = boardSize;
         score = 0;
-        grid = new int[GRID_SIZE][GRID_SIZE];
-        newTiles = new String[GRID_SIZE][GRID_SIZE];
+        cells = new byte[GRID_SIZE * GRID_SIZE];
+        tileEvents = new byte[GRID_SIZE * GRID_SIZE];
+        table = RowTable.forWidth(GRID_SIZE);
+        lineEntries = new int[GRID_SIZE];
+        slidLine = new int[GRID_SIZE];
+        freeCells = new long[(GRID_SIZE * GRID_SIZE + 63) / 64];
+        dirtyCells = new long[freeCells.length];
+        zobrist = Zobrist.forSize(GRID_SIZE);
+        recount();
 
         // Add starting tiles
         int times = 0;
@@ -62,7 +108,75 @@ public class Board {
     }
 
     /**
-     * Construct a board based off of an input file.
+     * Constructs an empty board, for the constructors that fill in the
+     * grid themselves.
+     *
+     * @param boardSize size of the board
+     * @param score starting score
+     * @param random random number generator
+     */
+    private Board(int boardSize, long score, Random random) {
+        this.random = random;
+        GRID_SIZE = boardSize;
+        this.score = score;
+        cells = new byte[GRID_SIZE * GRID_SIZE];
+        tileEvents = new byte[GRID_SIZE * GRID_SIZE];
+        table = RowTable.forWidth(GRID_SIZE);
+        lineEntries = new int[GRID_SIZE];
+        slidLine = new int[GRID_SIZE];
+        freeCells = new long[(GRID_SIZE * GRID_SIZE + 63) / 64];
+        dirtyCells = new long[freeCells.length];
+        zobrist = Zobrist.forSize(GRID_SIZE);
+        recount();
+    }
+
+    /**
+     * Constructs a board holding a copy of the given tiles.
+     *
+     * @param tiles square grid of tile values, indexed like getGrid()
+     * @param score starting score
+     * @param random random number generator
+     */
+    public Board(int[][] tiles, long score, Random random) {
+        this(tiles.length, score, random);
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                cells[row * GRID_SIZE + column] =
+                        exponentOf(tiles[row][column]);
+            }
+        }
+        recount();
+    }
+
+    /**
+     * Constructs a board holding a copy of the given tile exponents.
+     *
+     * @param boardSize size of the board
+     * @param exponents log2 of every tile, 0 if empty, indexed like
+     *                  getCells()
+     * @param score starting score
+     * @param random random number generator
+     */
+    public Board(int boardSize, byte[] exponents, long score, Random random) {
+        this(boardSize, score, random);
+        if (exponents.length != cells.length) {
+            throw new IllegalArgumentException(exponents.length
+                    + " tiles for a board of size " + boardSize);
+        }
+        for (byte exponent : exponents) {
+            if (exponent < 0 || exponent > MAX_EXPONENT) {
+                throw new IllegalArgumentException("Tile 2^" + exponent
+                        + " is out of range");
+            }
+        }
+        System.arraycopy(exponents, 0, cells, 0, cells.length);
+        recount();
+    }
+
+    /**
+     * Construct a board based off of an input file. Both the text format
+     * written by saveBoard and the binary format of BoardFile are read; a
+     * binary file gives its first board.
      *
      * @param inputBoard input .board file name
      * @param random random number generator
@@ -71,119 +185,258 @@ public class Board {
     public Board(String inputBoard, Random random) throws IOException {
         this.random = random;
 
-        // Read the whole board to memory
-        Scanner input = new Scanner(new File(inputBoard));
-        GRID_SIZE = input.nextInt();
-        score = input.nextInt();
-        grid = new int[GRID_SIZE][GRID_SIZE];
-        newTiles = new String[GRID_SIZE][GRID_SIZE];
-        for (int[] rows : grid) {
-            for (int column = 0; column < GRID_SIZE; column++) {
-                rows[column] = input.nextInt();
+        if (BoardFile.isBoardFile(Paths.get(inputBoard))) {
+            try (BoardFileReader reader =
+                    new BoardFileReader(Paths.get(inputBoard))) {
+                if (!reader.next() || !reader.isValid()) {
+                    throw new IOException("No intact board in " + inputBoard);
+                }
+                GRID_SIZE = reader.getSize();
+                if (!isSupportedSize(GRID_SIZE)) {
+                    throw new IOException("Board size " + GRID_SIZE
+                            + " in " + inputBoard + " is not supported");
+                }
+                score = reader.getScore();
+                cells = new byte[GRID_SIZE * GRID_SIZE];
+                for (int row = 0; row < GRID_SIZE; row++) {
+                    for (int column = 0; column < GRID_SIZE; column++) {
+                        int exponent = reader.getExponent(row, column);
+                        if (exponent > MAX_EXPONENT) {
+                            throw new IOException("Tile 2^" + exponent
+                                    + " is too large in " + inputBoard);
+                        }
+                        cells[row * GRID_SIZE + column] = (byte) exponent;
+                    }
+                }
+            }
+        } else {
+
+            // Read the whole board to memory
+            Scanner input = new Scanner(new File(inputBoard));
+            GRID_SIZE = input.nextInt();
+            if (!isSupportedSize(GRID_SIZE)) {
+                throw new IOException("Board size " + GRID_SIZE
+                        + " in " + inputBoard + " is not supported");
+            }
+            score = input.nextLong();
+            cells = new byte[GRID_SIZE * GRID_SIZE];
+            try {
+                for (int index = 0; index < cells.length; index++) {
+                    cells[index] = exponentOf(input.nextLong());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " in " + inputBoard);
             }
         }
+        tileEvents = new byte[GRID_SIZE * GRID_SIZE];
+        table = RowTable.forWidth(GRID_SIZE);
+        lineEntries = new int[GRID_SIZE];
+        slidLine = new int[GRID_SIZE];
+        freeCells = new long[(GRID_SIZE * GRID_SIZE + 63) / 64];
+        dirtyCells = new long[freeCells.length];
+        zobrist = Zobrist.forSize(GRID_SIZE);
+        recount();
     }
 
     /**
-     * Saves the current board to a file.
+     * Saves the current board to a file. The file is replaced in one step,
+     * so it never holds half a board; see SaveService to save without
+     * waiting.
      *
      * @param outputBoard output file name (for saving current progress)
      * @throws java.io.IOException
      */
     public void saveBoard(String outputBoard) throws IOException {
+        SaveService.writeAtomically(Paths.get(outputBoard), GRID_SIZE,
+                cells, getScore());
+    }
 
-        // Try to create the file and add in the information
-        try (PrintWriter outputFile = new PrintWriter(new File(outputBoard))) {
+    /**
+     * Adds a random tile (of value 2 or 4) to a random empty space on the
+     * board. The empty spaces are kept in a bit set, so this takes the same
+     * time however big the board is.
+     */
+    public void addRandomTile() {
+        lastSpawnIndex = -1;
 
-            outputFile.println(GRID_SIZE);
-            outputFile.println(score);
-            for (int[] rows : grid) {
-                for (int column = 0; column < GRID_SIZE; column++) {
-                    outputFile.print(rows[column] + " ");
-                }
-                outputFile.println();
-            }
+        // If there are no empty spaces, just exit
+        if (emptyCells == 0) {
+            return;
         }
+
+        // Get a random int called location between 0 and count - 1
+        int location = random.nextInt(emptyCells);
+        // Get random int called value btwn 0 and 99
+        int value = random.nextInt(100);
+
+        // New tile will be 2 or 4
+        int tileVal = value < GameConstants.TWO_PROBABILITY ? 2 : 4;
+
+        // Place it on the location'th empty space, counting row first,
+        // column second
+        int index = findFreeCell(location);
+        placeTile(index / GRID_SIZE, index % GRID_SIZE, tileVal);
     }
 
     /**
-     * Adds a random tile (of value 2 or 4) to a random empty space on the
-     * board.
+     * Places a new tile on an empty space, as if it was spawned there.
+     * Used to replay recorded games.
+     *
+     * @param row row of the grid
+     * @param column column of the grid
+     * @param tileVal value of the new tile
      */
-    public final void addRandomTile() {
+    public void placeTile(int row, int column, int tileVal) {
+        if (cells[row * GRID_SIZE + column] != 0) {
+            throw new IllegalStateException("Tile " + row + ", " + column
+                    + " is not empty");
+        }
+        tileEvents[row * GRID_SIZE + column] = TileEvent.NEW;
+        setCell(row, column, exponentOf(tileVal));
+        lastSpawnIndex = row * GRID_SIZE + column;
+        lastSpawnValue = tileVal;
+    }
 
-        // Count number of available tiles
-        int count = 0;
-        for (int[] rows : grid) {
-            for (int column = 0; column < GRID_SIZE; column++) {
-                if (rows[column] == 0) {
-                    count++;
+    /**
+     * Finds the n'th empty space, counting row first, column second.
+     *
+     * @param location which empty space, 0 based
+     * @return its index, row * GRID_SIZE + column
+     */
+    private int findFreeCell(int location) {
+        for (int word = 0; word < freeCells.length; word++) {
+            long bits = freeCells[word];
+            int count = Long.bitCount(bits);
+            if (location >= count) {
+                location -= count;
+                continue;
+            }
+
+            // Halve the word until only the wanted bit is left
+            int index = word * 64;
+            for (int width = 32; width > 0; width >>= 1) {
+                long low = bits & ((1L << width) - 1);
+                int lowCount = Long.bitCount(low);
+                if (location >= lowCount) {
+                    location -= lowCount;
+                    bits >>>= width;
+                    index += width;
+                } else {
+                    bits = low;
                 }
             }
+            return index;
         }
+        throw new IllegalStateException("No empty space left");
+    }
 
-        // If count is 0, just exit
-        if (count > 0) {
+    /**
+     * Places a tile on the grid, keeping the empty and dirty tiles up to
+     * date.
+     *
+     * @param row row of the grid
+     * @param column column of the grid
+     * @param exponent log2 of the new value, 0 for an empty tile
+     */
+    private void setCell(int row, int column, int exponent) {
+        setIndex(row * GRID_SIZE + column, exponent);
+    }
 
-            // Get a random int called location between 0 and count - 1
-            int location = random.nextInt(count);
-            // Get random int called value btwn 0 and 99
-            int value = random.nextInt(100);
+    private void setIndex(int index, int exponent) {
+        int oldExponent = cells[index];
+        if (oldExponent == exponent) {
+            return;
+        }
+        dirtyCells[index >>> 6] |= 1L << index;
+        if ((oldExponent == 0) != (exponent == 0)) {
+            freeCells[index >>> 6] ^= 1L << index;
+            emptyCells += exponent == 0 ? 1 : -1;
+        }
+        hash ^= zobrist.key(index, oldExponent) ^ zobrist.key(index, exponent);
+        cells[index] = (byte) exponent;
+    }
 
-            // New tile value
-            int tileVal;
+    /**
+     * Returns the exponent of a tile value.
+     *
+     * @param tileVal power of two, 0 for an empty tile
+     * @return log2 of the value, 0 for an empty tile
+     */
+    public static byte exponentOf(long tileVal) {
+        if (tileVal == 0) {
+            return 0;
+        }
+        if (tileVal < 0 || Long.bitCount(tileVal) != 1 || tileVal == 1) {
+            throw new IllegalArgumentException("Tile " + tileVal
+                    + " is not a power of two");
+        }
+        return (byte) Long.numberOfTrailingZeros(tileVal);
+    }
 
-            // New tile will be 2 or 4
-            if (value < GameConstants.TWO_PROBABILITY) {
-                tileVal = 2;
-            } else {
-                tileVal = 4;
-            }
+    /**
+     * Returns the value of a tile exponent.
+     *
+     * @param exponent log2 of the value, 0 for an empty tile
+     * @return the value, 0 for an empty tile
+     */
+    public static long valueOf(int exponent) {
+        return exponent == 0 ? 0 : 1L << exponent;
+    }
 
-            // Walk the board row first, column second keeping count of the
-            // empty spaces you find.  When you hit the i'th empty spot,
-            // place your new tile
-            int secondCount = 0;
-            for (int row = 0; row < GRID_SIZE; row++) {
-                for (int column = 0; column < GRID_SIZE; column++) {
-                    if (grid[row][column] == 0) {
-                        secondCount++;
-                        if (secondCount == location + 1) {
-                            newTiles[row][column] = "new";
-                            grid[row][column] = tileVal;
-                        }
-                    }
-                }
-            }
+    /**
+     * Puts the tiles and score of a snapshot back on the board. Only the
+     * tiles that differ are marked dirty. The tile events of the last move
+     * belong to the old tiles, so they are cleared.
+     *
+     * @param snapshot snapshot of a board of the same size
+     */
+    public void restore(BoardSnapshot snapshot) {
+        if (snapshot.getSize() != GRID_SIZE) {
+            throw new IllegalArgumentException("Snapshot of size "
+                    + snapshot.getSize() + " on a board of size " + GRID_SIZE);
         }
+        for (int index = 0; index < cells.length; index++) {
+            setIndex(index, snapshot.getExponent(index));
+        }
+        score = snapshot.getScore();
+        lastSpawnIndex = -1;
+        clearTileEvents();
     }
 
     /**
      * Rotates the board by 90 degrees clockwise or 90 degrees
-     * counter-clockwise.
+     * counter-clockwise. The grid is rotated in place, one ring of four
+     * tiles at a time.
      *
      * @param rotateClockwise rotate the board clockwise or counter
      */
     public void rotate(boolean rotateClockwise) {
-
-        // Copy arr to second
-        int[][] gridCopy = new int[GRID_SIZE][GRID_SIZE];
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int column = 0; column < GRID_SIZE; column++) {
-                gridCopy[row][column] = grid[row][column];
-            }
-        }
-
-        // Rotate the actual grid
-        for (int row = 0; row < gridCopy.length; row++) {
-            for (int column = 0; column < gridCopy[row].length; column++) {
+        int last = GRID_SIZE - 1;
+        for (int ring = 0; ring < GRID_SIZE / 2; ring++) {
+            for (int offset = ring; offset < last - ring; offset++) {
+
+                // The four tiles that trade places
+                int top = ring * GRID_SIZE + offset;
+                int left = (last - offset) * GRID_SIZE + ring;
+                int bottom = (last - ring) * GRID_SIZE + last - offset;
+                int right = offset * GRID_SIZE + last - ring;
+                byte exponent = cells[top];
                 if (rotateClockwise) {
-                    grid[row][column] = gridCopy[GRID_SIZE - 1 - column][row];
+                    cells[top] = cells[left];
+                    cells[left] = cells[bottom];
+                    cells[bottom] = cells[right];
+                    cells[right] = exponent;
                 } else {
-                    grid[row][column] = gridCopy[column][GRID_SIZE - 1 - row];
+                    cells[top] = cells[right];
+                    cells[right] = cells[bottom];
+                    cells[bottom] = cells[left];
+                    cells[left] = exponent;
                 }
             }
         }
+
+        // The empty tiles moved with the rest
+        recount();
     }
 
     /**
@@ -197,19 +450,28 @@ public class Board {
         // Open the file: make sure it has a size, score, and a grid with
         // the specified size!
         try {
+
+            // Binary files carry their own size and checksum
+            if (BoardFile.isBoardFile(Paths.get(inputFile))) {
+                try (BoardFileReader reader =
+                        new BoardFileReader(Paths.get(inputFile))) {
+                    return reader.next() && reader.isValid()
+                            && isSupportedSize(reader.getSize());
+                }
+            }
             
             Scanner input = new Scanner (new File(inputFile));            
             if (!input.hasNextInt()) {
                 return false;
             }            
             int gridSize = input.nextInt();
-            if (!input.hasNextInt()) {
+            if (!isSupportedSize(gridSize) || !input.hasNextLong()) {
                 return false;
             }            
-            input.nextInt();
+            input.nextLong();
             
             int numbers = 0;
-            while (input.hasNextInt()) {
+            while (input.hasNextLong()) {
                 input.next();
                 numbers++;
             }
@@ -222,6 +484,12 @@ public class Board {
         return false;
     }
 
+    // Return whether the game plays boards of this size
+    private static boolean isSupportedSize(int size) {
+        return size >= GameConstants.MIN_BOARD_SIZE
+                && size <= GameConstants.MAX_BOARD_SIZE;
+    }
+
     /**
      * Performs a move operation. Note that horizontal are flipped,
      * because of the way the double array grid is accessed.
@@ -230,104 +498,95 @@ public class Board {
      * @return successful move
      */
     public boolean move(Direction direction) {
-        if (direction == Direction.UP || direction == Direction.DOWN) {
-            if (canMoveHorizontally(direction == Direction.UP)) {
-                return moveHorizontal(direction == Direction.UP);
-            }
+
+        // Small boards move a whole line at a time through the RowTable,
+        // unless every tile has to be followed for the trace
+        if (trace == null && lookupLines(direction)) {
+            return applyLines(direction);
         }
-        if (direction == Direction.LEFT || direction == Direction.RIGHT) {
-            if (canMoveVertically(direction == Direction.LEFT)) {
-                return moveVertical(direction == Direction.LEFT);
+        return slideLines(isAlongRow(direction), isTowardStart(direction));
+    }
+
+    /**
+     * Looks up every line of the grid in the RowTable, as seen from the
+     * given direction. Only works for boards with a table for their width.
+     *
+     * @param direction direction specified by Direction class
+     * @return false if the table can't be used for this board
+     */
+    private boolean lookupLines(Direction direction) {
+        if (table == null) {
+            return false;
+        }
+        boolean alongRow = isAlongRow(direction);
+        boolean towardStart = isTowardStart(direction);
+
+        // Pack each line's tiles into 4 bit exponents
+        for (int line = 0; line < GRID_SIZE; line++) {
+            int packed = 0;
+            for (int index = 0; index < GRID_SIZE; index++) {
+                int exponent = cells[cellOf(alongRow, line, index)];
+
+                // The table leaves 2^15 tiles alone, we don't
+                if (exponent >= RowTable.MAX_EXPONENT) {
+                    return false;
+                }
+                packed |= exponent << (index * 4);
             }
+            lineEntries[line] = towardStart ? table.slideTowardStart(packed)
+                    : table.slideTowardEnd(packed);
         }
-        return false;
+        return true;
     }
 
     /**
-     * Moves all tiles up / down.
+     * Writes the lines found by lookupLines back to the grid.
      *
-     * @param up up / down
+     * @param direction direction the lines were looked up for
      * @return successful move
      */
-    public boolean moveVertical(boolean up) {
+    private boolean applyLines(Direction direction) {
+        boolean changed = false;
+        for (int entry : lineEntries) {
+            changed |= RowTable.changed(entry);
+        }
+        if (!changed) {
+            return false;
+        }
 
-        // We gotta move twice, but only merge once.
-        int times = 0;
-        while (times++ < 2) {
-            
-            // Move tiles up / down where possible
-            for (int column = 0; column < GRID_SIZE; column++) {
-                for (int row = up ? 0 : GRID_SIZE - 1; 
-                        up ? row < GRID_SIZE : row > -1;
-                        row += up ? 1 : -1) {
-
-                    // Just move the tiles up / down, making sure zeroes
-                    // are inserted after movement
-                    if (grid[row][column] == 0 && 
-                            row != (up ? GRID_SIZE - 1 : 0)) {
-
-                        for (int incrow = 1; 
-                                up ? row + incrow < GRID_SIZE :
-                                     row - incrow > -1; incrow++) {
-
-                            int newRow = up ? row + incrow : row - incrow;
-                            if (grid[newRow][column] != 0) {
-                                grid[row][column] = grid[newRow][column];
-                                grid[newRow][column] = 0;
-                                break;
-                            }
-                        }
-                    }
-                }
+        boolean alongRow = isAlongRow(direction);
+        for (int line = 0; line < GRID_SIZE; line++) {
+            int entry = lineEntries[line];
+            if (!RowTable.changed(entry)) {
+                continue;
             }
-            
-            if (times == 2) break;
-
-            // Then check for mergability
-            for (int column = 0; column < GRID_SIZE; column++) {
-                for (int row = up ? 0 : GRID_SIZE - 1; 
-                        up ? row < GRID_SIZE - 1 : row > 0;
-                        row += up ? 1 : -1) {
-
-                    if (grid[row][column] != 0) {
-
-                        // Check for adjacent merges
-                        int nextRow = up ? row + 1 : row - 1;
-                        if (grid[row][column] == grid[nextRow][column]) {
-                            newTiles[row][column] = "merge";
-                            grid[row][column] += grid[nextRow][column];
-                            score += grid[row][column];
-                            grid[nextRow][column] = 0;
-                            continue;
-                        }
-
-                        // Check for non-adjacent merges
-                        for (int incrow = 1; 
-                                up ? row + incrow < GRID_SIZE :
-                                     row - incrow > -1; incrow++) {
-
-                            int newRow = up ? row + incrow : row - incrow;
-                            
-                            // If there's a zero in between, don't bother
-                            if (grid[newRow][column] != 0) {
-                                break;
-                            }
-                            
-                            // Otherwise if they match, merge time
-                            if (grid[row][column] == grid[newRow][column]) {
-                                newTiles[row][column] = "merge";
-                                grid[row][column] += grid[newRow][column];
-                                score += grid[row][column];
-                                grid[newRow][column] = 0;
-                            }
-                        }
-                    }
+            int result = RowTable.result(entry);
+            int merges = RowTable.merges(entry);
+            for (int index = 0; index < GRID_SIZE; index++) {
+                int exponent = (result >>> (index * 4)) & RowTable.MAX_EXPONENT;
+                int cell = cellOf(alongRow, line, index);
+                setIndex(cell, exponent);
+
+                // Merged tiles add their value to the score
+                if ((merges & (1 << index)) != 0) {
+                    tileEvents[cell] = TileEvent.MERGE;
+                    score += 1L << exponent;
                 }
             }
         }
         return true;
     }
 
+    /**
+     * Moves all tiles up / down.
+     *
+     * @param up up / down
+     * @return successful move
+     */
+    public boolean moveVertical(boolean up) {
+        return slideLines(false, up);
+    }
+
     /**
      * Moves all tiles left / right.
      *
@@ -335,93 +594,126 @@ public class Board {
      * @return successful move
      */
     public boolean moveHorizontal(boolean left) {
-        
-        // We gotta move twice, but only merge once.
-        int times = 0;
-        while (times++ < 2) {
-            
-            // Move tiles left / right where possible
-            for (int row = 0; row < GRID_SIZE; row++) {
-                for (int column = left ? 0 : GRID_SIZE - 1; 
-                        left ? column < GRID_SIZE : column > -1;
-                        column += left ? 1 : -1) {
-
-                    // Just move the tiles left / right, making sure zeroes
-                    // are inserted after movement
-                    if (grid[row][column] == 0 && 
-                            column != (left ? GRID_SIZE - 1 : 0)) {
-
-                        for (int inccol = 1; 
-                                left ? column + inccol < GRID_SIZE :
-                                     column - inccol > -1; inccol++) {
-
-                            int newCol = left ? column + inccol : column - inccol;
-                            if (grid[row][newCol] != 0) {
-                                grid[row][column] = grid[row][newCol];
-                                grid[row][newCol] = 0;
-                                break;
-                            }
-                        }
-                    }
+        return slideLines(true, left);
+    }
+
+    /**
+     * Slides and merges every line of the grid. A line is either a row of
+     * the grid array (grid[line][index]) or a column (grid[index][line]),
+     * so every direction shares the same loop and nothing gets copied.
+     * Each line is worked out first and then written back, so only the
+     * tiles that end up with a different value are marked dirty.
+     *
+     * @param alongRow slide along grid[line][*] instead of grid[*][line]
+     * @param towardStart slide toward index 0 instead of GRID_SIZE - 1
+     * @return successful move
+     */
+    private boolean slideLines(boolean alongRow, boolean towardStart) {
+        int first = towardStart ? 0 : GRID_SIZE - 1;
+        int step = towardStart ? 1 : -1;
+        boolean moved = false;
+        if (trace != null) {
+            trace.clear();
+        }
+
+        for (int line = 0; line < GRID_SIZE; line++) {
+            Arrays.fill(slidLine, 0);
+
+            // Next free spot, and the tile just before it if it can merge
+            int target = first;
+            int mergeable = 0;
+
+            for (int index = first; index >= 0 && index < GRID_SIZE;
+                    index += step) {
+                int exponent = cells[cellOf(alongRow, line, index)];
+                if (exponent == 0) {
+                    continue;
                 }
-            }
-            
-            if (times == 2) break;
-
-            // Then check for mergability
-            for (int row = 0; row < GRID_SIZE; row++) {
-                for (int column = left ? 0 : GRID_SIZE - 1; 
-                        left ? column < GRID_SIZE - 1 : column > 0;
-                        column += left ? 1 : -1) {
-
-                    if (grid[row][column] != 0) {
-
-                        // Check for adjacent merges
-                        int nextCol = left ? column + 1 : column - 1;
-                        if (grid[row][column] == grid[row][nextCol]) {
-                            newTiles[row][column] = "merge";
-                            grid[row][column] += grid[row][nextCol];
-                            score += grid[row][column];
-                            grid[row][nextCol] = 0;
-                            continue;
-                        }
 
-                        // Check for non-adjacent merges
-                        for (int inccol = 1; 
-                                left ? column + inccol < GRID_SIZE :
-                                     column - inccol > -1; inccol++) {
-
-                            int newCol = left ? column + inccol : 
-                                    column - inccol;
-                            
-                            // If there's a zero in between, don't bother
-                            if (grid[row][newCol] != 0) {
-                                break;
-                            }
-                            
-                            // Otherwise if they match, merge time
-                            if (grid[row][column] == grid[row][newCol]) {
-                                newTiles[row][column] = "merge";
-                                grid[row][column] += grid[row][newCol];
-                                score += grid[row][column];
-                                grid[row][newCol] = 0;
-                            }
+                // Put the tile where it lands
+                if (exponent == mergeable && exponent < MAX_EXPONENT) {
+                    int merged = cellOf(alongRow, line, target - step);
+                    slidLine[target - step] = exponent + 1;
+                    tileEvents[merged] = TileEvent.MERGE;
+                    score += 1L << (exponent + 1);
+                    mergeable = 0;
+                    moved = true;
+                    if (trace != null) {
+                        trace.add(cellOf(alongRow, line, index), merged,
+                                true);
+                    }
+                } else {
+                    slidLine[target] = exponent;
+                    if (target != index) {
+                        moved = true;
+                        if (trace != null) {
+                            trace.add(cellOf(alongRow, line, index),
+                                    cellOf(alongRow, line, target), false);
                         }
                     }
+                    mergeable = exponent;
+                    target += step;
                 }
             }
+
+            // Write back only the tiles that changed
+            for (int index = 0; index < GRID_SIZE; index++) {
+                setIndex(cellOf(alongRow, line, index), slidLine[index]);
+            }
         }
-        return true;
+        return moved;
+    }
+
+    private int cellOf(boolean alongRow, int line, int index) {
+        return alongRow ? line * GRID_SIZE + index : index * GRID_SIZE + line;
     }
 
     /**
-     * Check to see if we have a game over.
+     * Check to see if we have a game over. A board with an empty tile is
+     * never over, so most calls return right away; a full board is over
+     * if no two neighbouring tiles are equal.
      *
      * @return true if game over
      */
     public boolean isGameOver() {
-        return !canMoveHorizontally(true) && !canMoveHorizontally(false)
-                && !canMoveVertically(true) && !canMoveVertically(false);
+        if (emptyCells > 0) {
+            return false;
+        }
+
+        // Compare every tile with the one after it in both directions
+        for (int row = 0; row < GRID_SIZE; row++) {
+            int start = row * GRID_SIZE;
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int index = start + column;
+                int exponent = cells[index];
+                if ((column + 1 < GRID_SIZE && exponent == cells[index + 1]
+                                && exponent < MAX_EXPONENT)
+                        || (row + 1 < GRID_SIZE
+                                && exponent == cells[index + GRID_SIZE]
+                                && exponent < MAX_EXPONENT)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recounts the empty tiles and rehashes the board. Needs to be called
+     * after the tiles were changed through getCells(). Every tile is marked
+     * dirty, since there is no telling which ones changed.
+     */
+    public void recount() {
+        emptyCells = 0;
+        Arrays.fill(freeCells, 0);
+        for (int index = 0; index < cells.length; index++) {
+            dirtyCells[index >>> 6] |= 1L << index;
+            if (cells[index] == 0) {
+                freeCells[index >>> 6] |= 1L << index;
+                emptyCells++;
+            }
+        }
+        hash = zobrist.hash(cells);
     }
 
     /**
@@ -431,150 +723,180 @@ public class Board {
      * @return we can move
      */
     public boolean canMove(Direction direction) {
-        if (direction == Direction.UP) {
-            return canMoveHorizontally(true);
-        } else if (direction == Direction.DOWN) {
-            return canMoveHorizontally(false);
-        } else if (direction == Direction.LEFT) {
-            return canMoveVertically(true);
-        } else if (direction == Direction.RIGHT) {
-            return canMoveVertically(false);
+        if (lookupLines(direction)) {
+            for (int entry : lineEntries) {
+                if (RowTable.changed(entry)) {
+                    return true;
+                }
+            }
+            return false;
         }
-        return false;
+        return canSlideLines(isAlongRow(direction), isTowardStart(direction));
     }
 
     /**
-     * Can we move horizontally in left or right direction?
+     * Can any line slide? A line can slide if a tile has an empty spot or
+     * an equal tile in front of it.
      *
-     * @param left left or right
+     * @param alongRow check grid[line][*] instead of grid[*][line]
+     * @param towardStart slide toward index 0 instead of GRID_SIZE - 1
      * @return yes we can
      */
-    private boolean canMoveHorizontally(boolean left) {
-
-        // Loop through each row
-        for (int[] rows : grid) {
-            boolean allZeroes = true;
-            int prevVal = -1;
-
-            // Check for any zeroes in the rows
-            for (int column = 0; column < GRID_SIZE; column++) {
-                if (rows[column] != 0) {
-                    allZeroes = false;
-                    break;
-                }
-            }
-
-            // If it's all zeroes, we don't care
-            if (!allZeroes) {
-
-                // Loop through the columns, and see if we can in fact move left
-                for (int column = left ? 0 : GRID_SIZE - 1;
-                        left ? column < GRID_SIZE : column > -1;
-                        column += left ? 1 : -1) {
-
-                    // Compare the previous value with the current. If they're
-                    // the same, and not zero, we're good. Otherwise, keep 
-                    // comparing adjacent values
-                    if (rows[column] != prevVal) {
-                        // If there's a zero, we can move left / right
-                        if (prevVal == 0) {
-                            return true;
-                        }
-                        prevVal = rows[column];
-                    } else {
-                        if (rows[column] == 0) {
-                            continue;
-                        }
-                        return true;
-                    }
+    private boolean canSlideLines(boolean alongRow, boolean towardStart) {
+        int first = towardStart ? 0 : GRID_SIZE - 1;
+        int step = towardStart ? 1 : -1;
+
+        for (int line = 0; line < GRID_SIZE; line++) {
+            int prevExponent = -1;
+            for (int index = first; index >= 0 && index < GRID_SIZE;
+                    index += step) {
+                int exponent = cells[cellOf(alongRow, line, index)];
+
+                // A tile behind an empty spot or an equal tile can move
+                if (exponent != 0 && (prevExponent == 0
+                        || (prevExponent == exponent
+                                && exponent < MAX_EXPONENT))) {
+                    return true;
                 }
+                prevExponent = exponent;
             }
         }
         return false;
     }
 
+    // UP / DOWN move along grid[line][*], LEFT / RIGHT along grid[*][line]
+    private static boolean isAlongRow(Direction direction) {
+        return direction == Direction.UP || direction == Direction.DOWN;
+    }
+
+    // UP / LEFT move toward index 0
+    private static boolean isTowardStart(Direction direction) {
+        return direction == Direction.UP || direction == Direction.LEFT;
+    }
+
     /**
-     * Can we move vertically?
+     * Returns a copy of the tiles as values, grid[row][column]. Changing it
+     * doesn't change the board. Tiles above 2^30 don't fit an int; use
+     * getExponent() or getCells() for those.
      *
-     * @param up up / down
-     * @return yes we can!
+     * @return tile values, 0 for an empty tile
      */
-    private boolean canMoveVertically(boolean up) {
-
-        // Loop through each column
-        for (int column = 0; column < GRID_SIZE; column++) {
-            boolean allZeroes = true;
-            int prevVal = -1;
-
-            // Keep column constant, loop through rows
-            for (int row = 0; row < GRID_SIZE; row++) {
-                if (grid[row][column] != 0) {
-                    allZeroes = false;
-                    break;
-                }
-            }
-
-            // If it's all zeroes, we don't care
-            if (!allZeroes) {
-
-                // Loop through the rows, and see if we can in fact move left
-                for (int row = up ? 0 : GRID_SIZE - 1;
-                        up ? row < GRID_SIZE : row > -1;
-                        row += up ? 1 : -1) {
-
-                    // Compare the previous value with the current. If they're
-                    // the same, and not zero, we're good. Otherwise, keep 
-                    // comparing adjacent values
-                    if (grid[row][column] != prevVal) {
-                        // If there's a zero, we can move up / down
-                        if (prevVal == 0) {
-                            return true;
-                        }
-                        prevVal = grid[row][column];
-                    } else {
-                        if (grid[row][column] == 0) {
-                            continue;
-                        }
-                        return true;
-                    }
-                }
+    public int[][] getGrid() {
+        int[][] grid = new int[GRID_SIZE][GRID_SIZE];
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                grid[row][column] = (int) valueOf(
+                        cells[row * GRID_SIZE + column]);
             }
         }
-        return false;
+        return grid;
     }
 
-    // Return the reference to the 2048 Grid
-    public int[][] getGrid() {
-        return grid;
+    // Return the reference to the tile exponents,
+    // index row * GRID_SIZE + column
+    public byte[] getCells() {
+        return cells;
     }
 
-    // Return the reference to the new tiles grid
-    public String[][] getNewTiles() {
-        return newTiles;
+    // Return the exponent of a single tile, 0 if empty
+    public int getExponent(int row, int column) {
+        return cells[row * GRID_SIZE + column];
     }
 
-    // Clears all new tile strings
-    public void clearNewTiles() {
-        for (int i = 0; i < newTiles.length; i++) {
-            for (int j = 0; j < newTiles[i].length; j++) {
-                newTiles[i][j] = "";
-            }
-        }
+    // Return the value of a single tile, 0 if empty
+    public long getTile(int row, int column) {
+        return valueOf(cells[row * GRID_SIZE + column]);
+    }
+
+    // Return the reference to the tile events, see TileEvent,
+    // index row * GRID_SIZE + column
+    public byte[] getTileEvents() {
+        return tileEvents;
+    }
+
+    // Return the event of a single tile, see TileEvent
+    public byte getTileEvent(int row, int column) {
+        return tileEvents[row * GRID_SIZE + column];
+    }
+
+    // Clears all tile events
+    public void clearTileEvents() {
+        Arrays.fill(tileEvents, TileEvent.NONE);
     }
     
+    /**
+     * Starts or stops recording where the tiles of every move go. While a
+     * trace is set, each move clears it and adds an entry for every tile
+     * that moved or merged.
+     *
+     * @param trace buffer to record into, null to stop recording
+     */
+    public void setMoveTrace(MoveTrace trace) {
+        if (trace != null && GRID_SIZE * GRID_SIZE - 1 > MoveTrace.MAX_CELL) {
+            throw new IllegalArgumentException("Board of size " + GRID_SIZE
+                    + " is too large to trace");
+        }
+        this.trace = trace;
+    }
+
+    // Return the trace moves are recorded into, null if none
+    public MoveTrace getMoveTrace() {
+        return trace;
+    }
+
+    // Return a bit per tile changed since clearDirtyCells(),
+    // index row * GRID_SIZE + column
+    public long[] getDirtyCells() {
+        return dirtyCells;
+    }
+
+    // Forget which tiles changed, once they have been drawn
+    public void clearDirtyCells() {
+        Arrays.fill(dirtyCells, 0);
+    }
+
+    // Return where the last random tile went, row * GRID_SIZE + column,
+    // or -1 if the last spawn found no empty space
+    public int getLastSpawnIndex() {
+        return lastSpawnIndex;
+    }
+
+    // Return the value of the last random tile
+    public int getLastSpawnValue() {
+        return lastSpawnValue;
+    }
+
+    // Return the Zobrist hash of the tiles, kept up to date by every move
+    // and spawn
+    public long getHash() {
+        return hash;
+    }
+
+    // Return a hash of the tiles that is the same for every rotation and
+    // mirroring of the board, worked out from all tiles
+    public long getCanonicalHash() {
+        return zobrist.canonicalHash(cells);
+    }
+
+    // Return the number of empty tiles
+    public int getEmptyCells() {
+        return emptyCells;
+    }
+
     // Return the score
-    public int getScore() {
+    public long getScore() {
         return score;
     }
 
     @Override
     public String toString() {
         StringBuilder outputString = new StringBuilder();
-        outputString.append(String.format("Score: %d\n", score));
+        outputString.append(String.format("Score: %d\n", getScore()));
         for (int row = 0; row < GRID_SIZE; row++) {
             for (int column = 0; column < GRID_SIZE; column++) {
-                outputString.append(grid[row][column] == 0 ? "    -"
-                        : String.format("%5d", grid[row][column]));
+                long tileVal = getTile(row, column);
+                outputString.append(tileVal == 0 ? "    -"
+                        : String.format("%5d", tileVal));
             }
 
             outputString.append("\n");
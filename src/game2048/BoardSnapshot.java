@@ -0,0 +1,287 @@
+package game2048;
+
+/**
+ * Sample packed snapshot (4x4, no tile above 2^15)
+ * <p/>
+ *   bits:  4 per tile, tile row * size + column at bit 4 * tile
+ * <p/>
+ * Sample wide snapshot (anything else)
+ * <p/>
+ *   words[tile / 8]:  8 bits per tile, at bit 8 * (tile % 8)
+ * <p/>
+ *
+ * This class holds the tiles and score of a board at one point in time. It
+ * can't be changed, so search trees, caches and replay tools can share one
+ * snapshot instead of copying the board for every position. Boards of at
+ * most 16 tiles that fit in nibbles are packed into a single long, laid out
+ * like BitBoard; other boards take a byte per tile in a long array. The
+ * layout only depends on the tiles, so equal positions are always packed
+ * the same way.
+ *
+ * Two snapshots are equal when they hold the same tiles; the score is
+ * carried along for restoring a board, but ignored by equals() and
+ * hashCode(), since the same position is worth the same whatever it
+ * scored to get there. The hash is worked out once, when the snapshot is
+ * made.
+ *
+ * A board looks the same after any of its 8 rotations and mirrorings, so
+ * caches can store one of them for all 8: canonical() picks the smallest.
+ * Symmetry s maps tile (row, column) by first swapping row and column if
+ * bit 2 is set, then mirroring the column if bit 0 is set and the row if
+ * bit 1 is set. Packed 4x4 snapshots are transformed with BitBoard's bit
+ * tricks, the rest one tile at a time.
+ */
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author David
+ */
+public final class BoardSnapshot {
+
+    // Number of rotations and mirrorings of a square board
+    public static final int SYMMETRIES = 8;
+
+    // Largest tile count and exponent that fit in one long of nibbles
+    private static final int PACKED_TILES = 16;
+    private static final int PACKED_MAX_EXPONENT = 0xF;
+
+    private final int size;
+    private final long score;
+
+    // Tiles in 4 bits each, 0 if the snapshot is wide
+    private final long packed;
+
+    // Tiles in 8 bits each, null if the snapshot is packed
+    private final long[] words;
+
+    private final int hash;
+
+    private BoardSnapshot(int size, long packed, long[] words, long score) {
+        this.size = size;
+        this.packed = packed;
+        this.words = words;
+        this.score = score;
+        hash = words == null ? mix(packed + size)
+                : mix(Arrays.hashCode(words) + size);
+    }
+
+    /**
+     * Takes a snapshot of a board.
+     *
+     * @param board board to copy the tiles and score from
+     * @return the snapshot
+     */
+    public static BoardSnapshot of(Board board) {
+        return of(board.GRID_SIZE, board.getCells(), board.getScore());
+    }
+
+    /**
+     * Takes a snapshot of tile exponents.
+     *
+     * @param size size of the board
+     * @param cells log2 of every tile, 0 if empty, indexed like
+     *              Board.getCells()
+     * @param score score of the board
+     * @return the snapshot
+     */
+    public static BoardSnapshot of(int size, byte[] cells, long score) {
+        if (cells.length != size * size) {
+            throw new IllegalArgumentException(cells.length
+                    + " tiles for a board of size " + size);
+        }
+        boolean fitsNibbles = cells.length <= PACKED_TILES;
+        for (int index = 0; fitsNibbles && index < cells.length; index++) {
+            fitsNibbles = cells[index] <= PACKED_MAX_EXPONENT;
+        }
+
+        if (fitsNibbles) {
+            long packed = 0;
+            for (int index = 0; index < cells.length; index++) {
+                packed |= (long) cells[index] << (index * 4);
+            }
+            return new BoardSnapshot(size, packed, null, score);
+        }
+        long[] words = new long[(cells.length + 7) / 8];
+        for (int index = 0; index < cells.length; index++) {
+            words[index >>> 3] |= (cells[index] & 0xFFL) << ((index & 7) * 8);
+        }
+        return new BoardSnapshot(size, 0, words, score);
+    }
+
+    /**
+     * Takes a snapshot of a packed 4x4 board, as held by BitBoard.
+     *
+     * @param board packed tiles
+     * @param score score of the board
+     * @return the snapshot
+     */
+    public static BoardSnapshot ofPacked(long board, long score) {
+        return new BoardSnapshot(BitBoard.GRID_SIZE, board, null, score);
+    }
+
+    /**
+     * Returns the snapshot under one of the 8 symmetries of the board. The
+     * score stays the same.
+     *
+     * @param symmetry symmetry, 0 (unchanged) to SYMMETRIES - 1
+     * @return the transformed snapshot
+     */
+    public BoardSnapshot transform(int symmetry) {
+        if (symmetry < 0 || symmetry >= SYMMETRIES) {
+            throw new IllegalArgumentException("Unknown symmetry "
+                    + symmetry);
+        }
+        if (symmetry == 0) {
+            return this;
+        }
+        if (isBitBoard()) {
+            return ofPacked(BitBoard.transform(packed, symmetry), score);
+        }
+        int last = size - 1;
+        byte[] cells = new byte[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int toRow = (symmetry & 4) != 0 ? column : row;
+                int toColumn = (symmetry & 4) != 0 ? row : column;
+                if ((symmetry & 1) != 0) {
+                    toColumn = last - toColumn;
+                }
+                if ((symmetry & 2) != 0) {
+                    toRow = last - toRow;
+                }
+                cells[toRow * size + toColumn] =
+                        (byte) getExponent(row * size + column);
+            }
+        }
+        return of(size, cells, score);
+    }
+
+    /**
+     * Returns the symmetry that gives the smallest snapshot, comparing the
+     * packed tiles as unsigned numbers.
+     *
+     * @return symmetry for transform(), 0 if the snapshot is the smallest
+     */
+    public int canonicalSymmetry() {
+        if (isBitBoard()) {
+            long canonical = BitBoard.canonical(packed);
+            int symmetry = 0;
+            while (BitBoard.transform(packed, symmetry) != canonical) {
+                symmetry++;
+            }
+            return symmetry;
+        }
+        int best = 0;
+        BoardSnapshot smallest = this;
+        for (int symmetry = 1; symmetry < SYMMETRIES; symmetry++) {
+            BoardSnapshot candidate = transform(symmetry);
+            if (candidate.compareTiles(smallest) < 0) {
+                best = symmetry;
+                smallest = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the same snapshot for all 8 rotations and mirrorings of a
+     * board.
+     *
+     * @return the smallest transformed snapshot
+     */
+    public BoardSnapshot canonical() {
+        if (isBitBoard()) {
+            return ofPacked(BitBoard.canonical(packed), score);
+        }
+        return transform(canonicalSymmetry());
+    }
+
+    // Return whether the tiles are packed the way BitBoard packs them
+    private boolean isBitBoard() {
+        return words == null && size == BitBoard.GRID_SIZE;
+    }
+
+    /**
+     * Orders two snapshots of the same size by their tiles.
+     */
+    private int compareTiles(BoardSnapshot other) {
+        if (words == null) {
+            return Long.compareUnsigned(packed, other.packed);
+        }
+        for (int word = words.length - 1; word >= 0; word--) {
+            int order = Long.compareUnsigned(words[word], other.words[word]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the exponent of a tile.
+     *
+     * @param index tile, row * size + column
+     * @return log2 of the tile, 0 if empty
+     */
+    public int getExponent(int index) {
+        if (words == null) {
+            return (int) (packed >>> (index * 4)) & PACKED_MAX_EXPONENT;
+        }
+        return (int) (words[index >>> 3] >>> ((index & 7) * 8)) & 0xFF;
+    }
+
+    // Return the size of the board
+    public int getSize() {
+        return size;
+    }
+
+    // Return the score of the board
+    public long getScore() {
+        return score;
+    }
+
+    // Return whether the tiles are packed into one long of nibbles
+    public boolean isPacked() {
+        return words == null;
+    }
+
+    // Return the tiles packed into nibbles, only if isPacked()
+    public long getPacked() {
+        if (words != null) {
+            throw new IllegalStateException("Snapshot of size " + size
+                    + " is not packed");
+        }
+        return packed;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BoardSnapshot)) {
+            return false;
+        }
+        BoardSnapshot that = (BoardSnapshot) other;
+        return size == that.size && hash == that.hash
+                && packed == that.packed && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a key over the whole hash, so packed boards that
+     * only differ in a few tiles don't end up next to each other.
+     */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,178 @@
+package game2048;
+
+/**
+ * This class draws a board on a single Canvas, as an alternative to the
+ * Tile and TileText nodes the game window uses for every tile. Large boards
+ * need thousands of nodes, while this only ever has one.
+ *
+ * Every tile value is drawn once into an image (its glyph) at the current
+ * tile size, and a tile is drawn by copying its glyph. Only the tiles the
+ * board marked dirty are redrawn after a move. The canvas follows the size
+ * of this pane, so the window can be resized; a new size throws away the
+ * glyphs and redraws the whole board.
+ *
+ * Tiles are placed the same way as in the GridPane: grid[x][y] is shown in
+ * column x, row y.
+ */
+
+import java.util.Arrays;
+import javafx.geometry.VPos;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+/**
+ *
+ * @author David
+ */
+public class CanvasRenderer extends Pane {
+
+    // Background behind the tiles
+    public static final Color COLOR_BACKGROUND = Color.rgb(187, 173, 160);
+
+    // Width of a tile plus the space after it, at the default tile size
+    private static final double PITCH =
+            GameConstants.TILE_WIDTH + GameConstants.TILE_GAP;
+
+    private final Board board;
+    private final Canvas canvas = new Canvas();
+
+    // Glyph of every tile value by exponent, made when first drawn
+    private final Image[] glyphs = new Image[Board.MAX_EXPONENT + 1];
+
+    // Current tile size, tile plus space, and where the first tile goes
+    private double tileSize;
+    private double pitch;
+    private double left, top;
+
+    /**
+     * Creates a renderer for a board. It draws once it has been given a
+     * size.
+     *
+     * @param board board to draw
+     */
+    public CanvasRenderer(Board board) {
+        this.board = board;
+        getChildren().add(canvas);
+
+        // Prefer the size the tiles have in the GridPane
+        double side = board.GRID_SIZE * PITCH + GameConstants.TILE_GAP;
+        setPrefSize(side, side);
+    }
+
+    /**
+     * Redraws the tiles that changed since the last update.
+     */
+    public void update() {
+        if (tileSize > 0) {
+            long[] dirtyCells = board.getDirtyCells();
+            for (int word = 0; word < dirtyCells.length; word++) {
+                for (long bits = dirtyCells[word]; bits != 0;
+                        bits &= bits - 1) {
+                    drawCell(word * 64 + Long.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+        board.clearDirtyCells();
+    }
+
+    /**
+     * Fits the canvas and the tiles to the new size of the pane, and
+     * redraws everything.
+     */
+    @Override
+    protected void layoutChildren() {
+        double width = getWidth();
+        double height = getHeight();
+        if (width == canvas.getWidth() && height == canvas.getHeight()) {
+            return;
+        }
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+
+        // Scale tiles and spaces together, in whole pixels so the glyphs
+        // stay sharp
+        int size = board.GRID_SIZE;
+        double side = Math.min(width, height);
+        pitch = Math.floor(side / (size + GameConstants.TILE_GAP / PITCH));
+        tileSize = Math.round(pitch * GameConstants.TILE_WIDTH / PITCH);
+        double gap = pitch - tileSize;
+        left = Math.floor((width - size * pitch + gap) / 2);
+        top = Math.floor((height - size * pitch + gap) / 2);
+        Arrays.fill(glyphs, null);
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(COLOR_BACKGROUND);
+        gc.fillRect(0, 0, width, height);
+        if (tileSize > 0) {
+            for (int cell = 0; cell < size * size; cell++) {
+                drawCell(cell);
+            }
+        }
+        board.clearDirtyCells();
+    }
+
+    /**
+     * Draws one tile.
+     *
+     * @param cell tile to draw, row * GRID_SIZE + column
+     */
+    private void drawCell(int cell) {
+        int size = board.GRID_SIZE;
+        int row = cell / size;
+        int column = cell % size;
+        double x = left + row * pitch;
+        double y = top + column * pitch;
+
+        // Empty tiles are see-through, so clear what was there first
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(COLOR_BACKGROUND);
+        gc.fillRect(x, y, tileSize, tileSize);
+        gc.drawImage(glyph(board.getCells()[cell]), x, y);
+    }
+
+    /**
+     * Returns the glyph of a tile exponent at the current tile size,
+     * drawing it the first time.
+     *
+     * @param exponent log2 of the tile value, 0 for an empty tile
+     * @return image of the tile
+     */
+    private Image glyph(int exponent) {
+        if (glyphs[exponent] != null) {
+            return glyphs[exponent];
+        }
+
+        TileStyle style = TileStyle.forExponent(exponent);
+        Canvas scratch = new Canvas(tileSize, tileSize);
+        GraphicsContext gc = scratch.getGraphicsContext2D();
+        gc.setFill(style.getFill());
+        gc.fillRect(0, 0, tileSize, tileSize);
+
+        // Same text as the tiles of the GridPane, scaled, and centred with
+        // the size the style measured for it
+        if (exponent > 0) {
+            double scale = tileSize / GameConstants.TILE_WIDTH;
+            Font font = style.getFont();
+            gc.setFont(Font.font(font.getFamily(), FontWeight.BOLD,
+                    font.getSize() * scale));
+            gc.setFill(style.getTextFill());
+            gc.setTextAlign(TextAlignment.LEFT);
+            gc.setTextBaseline(VPos.TOP);
+            gc.fillText(style.getText(),
+                    (tileSize - style.getTextWidth() * scale) / 2,
+                    (tileSize - style.getTextHeight() * scale) / 2);
+        }
+
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        glyphs[exponent] = scratch.snapshot(parameters, null);
+        return glyphs[exponent];
+    }
+}
@@ -3,18 +3,20 @@ package game2048;
 /**
  * This file defines the graphics window for the 2048 game.
  * 
- * This program uses a mixture of JavaFX and Java SwingX. The main program
- * uses JavaFX, while the user interactive input boar and output saving board
- * use Java SwingX. It uses Thread.sleep(), which is not the best solution,
- * but waits for the file handling to be finished before the program runs or
- * exits.
+ * This program only uses JavaFX, including the user interactive input board
+ * and output saving board windows, so AWT and Swing never get loaded. The
+ * input window hands the board over through a CompletableFuture, and the
+ * game window is built once it completes; the board file is checked and
+ * read on a background thread, so the JavaFX thread never waits for the
+ * disk.
  * 
  */
-import java.awt.BorderLayout;
-import java.awt.Dimension;
-import java.awt.event.ActionListener;
-import java.awt.event.KeyListener;
+import game2048.io.SaveService;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import javafx.application.*;
 import javafx.scene.*;
 import javafx.scene.paint.*;
@@ -24,14 +26,21 @@ import javafx.stage.*;
 import javafx.event.*;
 import javafx.scene.input.*;
 import javafx.scene.text.*;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
 import javafx.geometry.*;
 import javafx.scene.effect.BlendMode;
-import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.ParallelTransition;
 import javafx.animation.ScaleTransition;
+import javafx.animation.TranslateTransition;
 import javafx.util.Duration;
 
 /**
@@ -40,8 +49,6 @@ import javafx.util.Duration;
  *
  * @TODO ANIMATION!
  * @TODO SOUND!
- * @TODO Resizable Game Window
- * @TODO Support game boards other than 4x4
  *
  */
 public class Game2048 extends Application {
@@ -52,56 +59,84 @@ public class Game2048 extends Application {
     // The 2048 Game Board
     private Board board;
 
+    // Writes the board in the background, so saving never stalls the game
+    private final SaveService saver = new SaveService();
+
+    // Successful moves since the game window opened, for autosaving
+    private int moveCount;
+
     // GUI objects for game window
     private StackPane layout;
     private GridPane pane;
     private Text titleText, scoreText;
 
-    // InputFileHandler must finish before the pane is created
-    private InputFileHandler ifh;
+    // Renderer picked on the command line, null to pick one by board size
+    private String rendererName;
+
+    // Draws the board when the canvas renderer is used, null otherwise
+    private CanvasRenderer canvasRenderer;
+
+    // Completed by InputFileHandler once the board is loaded
+    private final CompletableFuture<Board> boardReady =
+            new CompletableFuture<>();
 
     // To hold all tiles and their corresponding values as text objects
     private final ArrayList<Tile> tiles = new ArrayList<>();
     private final ArrayList<TileText> tileTexts = new ArrayList<>();
-    
-    private ScaleTransition transition;
+
+    // Where the tiles of the last move went, filled in by board.move()
+    private final MoveTrace trace = new MoveTrace();
+
+    // A slide and a zoom for every tile and text object, made once and
+    // reused: tile i uses index 2 * i, its text 2 * i + 1
+    private final ArrayList<TranslateTransition> slides = new ArrayList<>();
+    private final ArrayList<ScaleTransition> zooms = new ArrayList<>();
+
+    // Plays the slides and zooms of the last move together
+    private final ParallelTransition animation = new ParallelTransition();
 
     /**
      * Opens up the game window.
      *
      * @param primaryStage main, top level container
-     * @throws java.lang.InterruptedException for thread's sleep
      */
     @Override
-    public void start(Stage primaryStage) throws InterruptedException {
+    public void start(Stage primaryStage) {
         // Process Arguments and Initialize the Game Board
         processArgs(getParameters().getRaw().toArray(new String[0]));
 
-        // Wait until the file handler window is done ... not the best way
-        while (!ifh.isFinished()) {
-            Thread.sleep(1);
+        // Build the game window once the input window has a board
+        boardReady.thenAccept(loaded -> Platform.runLater(() -> {
+            board = loaded;
+            showGame(primaryStage);
+        }));
+    }
+
+    /**
+     * Builds and shows the game window for the loaded board.
+     *
+     * @param primaryStage main, top level container
+     */
+    private void showGame(Stage primaryStage) {
+
+        // Large boards are drawn on a canvas instead of with nodes
+        if (rendererName == null ? board.GRID_SIZE
+                > GameConstants.NODE_RENDERER_MAX_SIZE
+                : rendererName.equals("canvas")) {
+            showCanvasGame(primaryStage);
+            return;
         }
-        
+
         // Create the pane that will hold all of the visual objects
         pane = new GridPane();
         pane.setAlignment(Pos.CENTER);
         pane.setPadding(new Insets(11.5, 12.5, 13.5, 14.5));
         pane.setStyle("-fx-background-color: rgb(187, 173, 160)");
         // Set the spacing between the Tiles
-        pane.setHgap(15);
-        pane.setVgap(15);
+        pane.setHgap(GameConstants.TILE_GAP);
+        pane.setVgap(GameConstants.TILE_GAP);
 
-        // 2048 title (of the game)
-        titleText = new Text();
-        titleText.setFont(Font.font("Comic Sans MS",
-                FontWeight.BOLD, GameConstants.TEXT_SIZE_LOW));
-        titleText.setText("2048");
-
-        // Score board of the game
-        scoreText = new Text();
-        scoreText.setFont(Font.font("Comic Sans MS",
-                FontWeight.BOLD, GameConstants.TEXT_SIZE_HIGH));
-        scoreText.setText("Score: " + board.getScore());
+        createTitleAndScore();
 
         // center align each text object
         GridPane.setHalignment(titleText, HPos.CENTER);
@@ -119,30 +154,11 @@ public class Game2048 extends Application {
 
         // JavaFX Applet Window
         Scene scene = new Scene(layout);
-        primaryStage.setTitle("Game2048");
-        primaryStage.setScene(scene);
         primaryStage.setWidth(
                 (GameConstants.TILE_WIDTH + 20) * board.GRID_SIZE);
         primaryStage.setHeight(
                 (GameConstants.TILE_WIDTH + 20) * (board.GRID_SIZE + 1));
-        primaryStage.show();
-        primaryStage.requestFocus();
-
-        // JavaFX's version of onSetDefaultOperation
-        primaryStage.setOnCloseRequest((WindowEvent t) -> {
-            if (t.getEventType() == WindowEvent.WINDOW_CLOSE_REQUEST) {
-                
-                // If the game is over, it saves by itself anyway
-                if (board.isGameOver()) {
-                    System.exit(0);
-                }
-                
-                handleInteractiveSaveBoard();
-            }
-        });
-        
-        // Listen for keyboard input
-        scene.setOnKeyPressed(new MyKeyHandler());
+        showStage(primaryStage, scene);
 
         // Create the game's grid
         for (int index = 0; 
@@ -153,19 +169,23 @@ public class Game2048 extends Application {
 
             // Creating Text objects that correspond to their tile
             tileTexts.add(new TileText());
+
+            // Their animations, started by updateGUIBoard
+            for (Node node : new Node[]{tiles.get(index),
+                    tileTexts.get(index)}) {
+                slides.add(new TranslateTransition(Duration.millis(
+                        GameConstants.SLIDE_DURATION_TIME), node));
+                zooms.add(new ScaleTransition(Duration.ZERO, node));
+            }
             
             // Get the corresponding value from the board grid & update the tile
             // text that corresponds to that value
             // i.e. index 0 = [0, 0], index 4 = [1, 0]
-            int tileVal = board.getGrid()
-                    [index % board.GRID_SIZE][index / board.GRID_SIZE];
+            int exponent = board.getExponent(
+                    index % board.GRID_SIZE, index / board.GRID_SIZE);
 
             // Update the text displayed on the tile
-            if (tileVal > 0) {
-                tileTexts.get(index).setText(tileVal + "");
-                tiles.get(index).setFill(tileVal == 2 ? 
-                        GameConstants.COLOR_2 : GameConstants.COLOR_4);
-            }
+            updateTile(tiles.get(index), tileTexts.get(index), exponent);
 
             // Empty rectangle, basically the layout of the board (no animation)
             pane.add(new Tile(),
@@ -180,11 +200,102 @@ public class Game2048 extends Application {
         }
 
         // Update all tiles and colors of the game board
+        board.setMoveTrace(trace);
         updateGUIBoard();
     }
 
+    /**
+     * Builds and shows the game window with the board drawn on a canvas.
+     * The window can be resized, and starts as large as fits the screen.
+     *
+     * @param primaryStage main, top level container
+     */
+    private void showCanvasGame(Stage primaryStage) {
+        canvasRenderer = new CanvasRenderer(board);
+        createTitleAndScore();
+
+        // Title and score above the board
+        HBox header = new HBox(GameConstants.TILE_GAP * 2, titleText,
+                scoreText);
+        header.setAlignment(Pos.CENTER);
+        BorderPane canvasPane = new BorderPane(canvasRenderer);
+        canvasPane.setTop(header);
+        canvasPane.setBackground(new Background(new BackgroundFill(
+                CanvasRenderer.COLOR_BACKGROUND, null, null)));
+
+        // Create a Stack Pane (will hold the board and Game Over pane)
+        layout = new StackPane(canvasPane);
+
+        // Start with the default tile size, or smaller if it doesn't fit
+        Rectangle2D screen = Screen.getPrimary().getVisualBounds();
+        double pitch = Math.min(
+                GameConstants.TILE_WIDTH + GameConstants.TILE_GAP,
+                screen.getHeight() * 0.9 / (board.GRID_SIZE + 1));
+        Scene scene = new Scene(layout, pitch * board.GRID_SIZE,
+                pitch * (board.GRID_SIZE + 1));
+        showStage(primaryStage, scene);
+
+        // Draw the whole board
+        updateGUIBoard();
+    }
+
+    /**
+     * Creates the title and score texts shown above the board.
+     */
+    private void createTitleAndScore() {
+
+        // 2048 title (of the game)
+        titleText = new Text();
+        titleText.setFont(Font.font("Comic Sans MS",
+                FontWeight.BOLD, GameConstants.TEXT_SIZE_LOW));
+        titleText.setText("2048");
+
+        // Score board of the game
+        scoreText = new Text();
+        scoreText.setFont(Font.font("Comic Sans MS",
+                FontWeight.BOLD, GameConstants.TEXT_SIZE_HIGH));
+        scoreText.setText("Score: " + board.getScore());
+    }
+
+    /**
+     * Shows the game window and hooks up its keyboard and close handling.
+     *
+     * @param primaryStage main, top level container
+     * @param scene scene of the game window
+     */
+    private void showStage(Stage primaryStage, Scene scene) {
+        primaryStage.setTitle("Game2048");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+        primaryStage.requestFocus();
+        reportStartupTime("Game window");
+
+        // JavaFX's version of onSetDefaultOperation
+        primaryStage.setOnCloseRequest((WindowEvent t) -> {
+            if (t.getEventType() == WindowEvent.WINDOW_CLOSE_REQUEST) {
+                
+                // If the game is over, it saves by itself anyway
+                if (board.isGameOver()) {
+                    exit();
+                }
+                
+                handleInteractiveSaveBoard();
+            }
+        });
+        
+        // Listen for keyboard input
+        scene.setOnKeyPressed(new MyKeyHandler());
+    }
+
     /**
      * The method used to process the command line arguments.
+     * <p/>
+     *   -i FILE  board to load, skipping the input window if it loads
+     *   -o FILE  where to save the board (2048.board)
+     *   -s N     size of a new board, 3 to 16 (4)
+     *   -r NAME  nodes, or canvas for a resizable window (canvas for
+     *            boards larger than 6x6, nodes otherwise)
+     * <p/>
      *
      * @param args
      */
@@ -196,194 +307,339 @@ public class Game2048 extends Application {
         // The size of the Board
         int boardSize = 0;
 
+        // Every option takes a value
+        for (int index = 0; index < args.length; index += 2) {
+            String option = args[index];
+            String value = index + 1 < args.length ? args[index + 1] : null;
+            if (value == null) {
+                usage("Missing value for " + option);
+            }
+            switch (option) {
+                case "-i":
+                    inputBoard = value;
+                    break;
+                case "-o":
+                    outputBoard = value;
+                    break;
+                case "-r":
+                    if (!value.equals("nodes") && !value.equals("canvas")) {
+                        usage("Unknown renderer " + value);
+                    }
+                    rendererName = value;
+                    break;
+                case "-s":
+                    try {
+                        boardSize = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        usage("Bad board size " + value);
+                    }
+                    if (boardSize < GameConstants.MIN_BOARD_SIZE
+                            || boardSize > GameConstants.MAX_BOARD_SIZE) {
+                        usage("Board size must be "
+                                + GameConstants.MIN_BOARD_SIZE + " to "
+                                + GameConstants.MAX_BOARD_SIZE);
+                    }
+                    break;
+                default:
+                    usage("Unknown option " + option);
+            }
+        }
+
         // Set the default output file if none specified
         if (outputBoard == null) {
             outputBoard = "2048.board";
         }
-        // Set the default Board size if none specified or less than 2
-        if (boardSize < 2) {
-            boardSize = 4;
+        // Set the default Board size if none specified
+        if (boardSize == 0) {
+            boardSize = GameConstants.DEFAULT_BOARD_SIZE;
         }
 
         // Initialize the Game Board
+        new InputFileHandler(boardSize, inputBoard);
+        reportStartupTime("Input window");
+    }
+
+    /**
+     * Prints what went wrong with the command line and how to use it, then
+     * exits.
+     *
+     * @param error what went wrong
+     */
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: Game2048 [-i inputBoard] [-o outputBoard]"
+                + " [-s boardSize] [-r nodes|canvas]");
+        System.exit(-1);
+    }
+
+    /**
+     * Prints how long after the JVM started a window had its first frame
+     * drawn, if the program runs with -Dgame2048.startupTiming=true. A
+     * window is drawn at the end of the pulse after it was shown, so the
+     * time is taken at the start of the pulse after that.
+     *
+     * @param window name of the window
+     */
+    private static void reportStartupTime(String window) {
+        if (!Boolean.getBoolean("game2048.startupTiming")) {
+            return;
+        }
+        long shown = System.currentTimeMillis();
+        new AnimationTimer() {
+
+            // Pulses seen so far
+            private int pulses;
+
+            @Override
+            public void handle(long now) {
+                if (++pulses < 2) {
+                    return;
+                }
+                stop();
+                long started = ManagementFactory.getRuntimeMXBean()
+                        .getStartTime();
+                long drawn = System.currentTimeMillis();
+                System.out.println(window + " shown " + (shown - started)
+                        + " ms and first drawn " + (drawn - started)
+                        + " ms after start");
+            }
+        }.start();
+    }
+
+    /**
+     * Checks and reads a board file, or creates a new board if no .board
+     * file is given. Runs on a background thread.
+     *
+     * @param inputBoard name typed in by the user
+     * @param boardSize size of a new board
+     * @return the board, or null if the file isn't formatted correctly
+     */
+    private static Board loadBoard(String inputBoard, int boardSize) {
+
+        // If the file doesn't end in .board, don't bother
+        if (!inputBoard.endsWith(".board")) {
+            return new Board(boardSize, new Random());
+        }
+
+        // Check if the file is in the right format!
+        if (!Board.isInputFileCorrectFormat(inputBoard)) {
+            return null;
+        }
         try {
-            ifh = new InputFileHandler(boardSize);
-        } catch (Exception e) {
-            System.out.println(e.getClass().getName()
-                    + " was thrown while creating a "
-                    + "Board from file " + inputBoard);
-            System.out.println("Either your Board(String, Random) "
-                    + "Constructor is broken or the file isn't "
-                    + "formated correctly");
-            System.exit(-1);
+            return new Board(inputBoard, new Random());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
     }
 
     /**
-     * Updates the tiles of the board.
+     * Updates the tiles of the board that changed since the last update.
+     * The nodes stay in the pane, only their color, text and font change.
      */
     private void updateGUIBoard() {
+        if (canvasRenderer != null) {
+            canvasRenderer.update();
+            scoreText.setText("Score: " + board.getScore());
+            return;
+        }
 
-        // Loop through the new updated grid and update the whole game
-        for (int index = 0;
-                index < Math.pow(board.GRID_SIZE, 2); index++) {
-
-            // Remove all children from the pane (one at a time)
-            pane.getChildren().remove(tiles.get(index));
-            pane.getChildren().remove(tileTexts.get(index));
-
-            // Get the value of the tile from the grid array
-            int tileVal = board.getGrid()
-                    [index % board.GRID_SIZE][index / board.GRID_SIZE];
-
-            // If the tile has a corresponding grid value, change the
-            // tile's text and color depending on the value
-            if (tileVal > 0) {
-                tileTexts.get(index).setText(tileVal + "");
-
-                // Update tile's color
-                Color colorToFill = GameConstants.getNewTileColor(tileVal);
-                tiles.get(index).setFill(colorToFill);
-
-                // Update the color and font size of the new tile texts
-                if (tileVal < 8) {
-                    tileTexts.get(index).setFill(
-                            GameConstants.COLOR_VALUE_DARK);
-                    tileTexts.get(index).setFont(
-                            GameConstants.LOW_VALUE_FONT);
-                } else {
-                    tileTexts.get(index).setFill(
-                            GameConstants.COLOR_VALUE_LIGHT);
-                    if (tileVal < 1024) {
-                        tileTexts.get(index).setFont(
-                                GameConstants.MID_VALUE_FONT);
-                    } else {
-                        tileTexts.get(index).setFont(
-                                GameConstants.HIGH_VALUE_FONT);
-                    }
-                }
-            } // Otherwise, just give it the default color
-            else {
-                tiles.get(index).setFill(GameConstants.COLOR_EMPTY);
-                tileTexts.get(index).setText("");
-            }
+        int size = board.GRID_SIZE;
+        byte[] cells = board.getCells();
+        byte[] tileEvents = board.getTileEvents();
+        long[] dirtyCells = board.getDirtyCells();
 
-            // Add the newly updated tiles and its correponding value
-            pane.add(tiles.get(index),
-                    index % board.GRID_SIZE, index / board.GRID_SIZE + 1);
-            pane.add(tileTexts.get(index),
-                    index % board.GRID_SIZE, index / board.GRID_SIZE + 1);
-            
-            // String info for tile
-            String info = board.getNewTiles()[index % board.GRID_SIZE][index / board.GRID_SIZE];
-            if (info != null) {
-                switch (info) {
-                    case "new":
-                        controlZoomInOutAnimation(tiles.get(index), false);
-                        controlZoomInOutAnimation(tileTexts.get(index), false);
+        // Snap the last move's tiles into place, then slide this move's
+        finishAnimation();
+        for (int entry = 0; entry < trace.size(); entry++) {
+
+            // A merged tile slides onto a tile that shows the sum already
+            if (!trace.isMerged(entry)) {
+                slideTile(trace.getSource(entry), trace.getDestination(entry));
+            }
+        }
+        Duration zoomDelay = trace.size() > 0
+                ? Duration.millis(GameConstants.SLIDE_DURATION_TIME)
+                : Duration.ZERO;
+
+        // Loop through the changed tiles only, index row * size + column
+        for (int word = 0; word < dirtyCells.length; word++) {
+            for (long bits = dirtyCells[word]; bits != 0; bits &= bits - 1) {
+                int cell = word * 64 + Long.numberOfTrailingZeros(bits);
+                int row = cell / size;
+                int column = cell % size;
+
+                // The window shows grid[index % size][index / size]
+                int index = column * size + row;
+                updateTile(tiles.get(index), tileTexts.get(index),
+                        cells[cell]);
+
+                // What happened to the tile
+                switch (tileEvents[cell]) {
+                    case TileEvent.NEW:
+                        zoomTile(index, false, zoomDelay);
+                        break;
+                    case TileEvent.MERGE:
+                        zoomTile(index, true, zoomDelay);
                         break;
-                    case "merge":
-                        controlZoomInOutAnimation(tiles.get(index), true);
-                        controlZoomInOutAnimation(tileTexts.get(index), true);
+                    default:
                         break;
                 }
             }
-            
-            GridPane.setHalignment(tileTexts.get(index), HPos.CENTER);
-            scoreText.setText("Score: " + board.getScore());
-        }        
+        }
+        board.clearDirtyCells();
+        scoreText.setText("Score: " + board.getScore());
+        animation.playFromStart();
+    }
+
+    /**
+     * Slides the tile (and text) shown on a board cell in from another
+     * cell. The tile already shows its new value, so it only has to move
+     * from where it was back to where it belongs.
+     *
+     * @param source board cell the tile came from, row * size + column
+     * @param destination board cell the tile is on now
+     */
+    private void slideTile(int source, int destination) {
+        int size = board.GRID_SIZE;
+        double pitch = GameConstants.TILE_WIDTH + GameConstants.TILE_GAP;
+
+        // A board row is a column of the window, see updateGUIBoard
+        double fromX = (source / size - destination / size) * pitch;
+        double fromY = (source % size - destination % size) * pitch;
+        int index = destination % size * size + destination / size;
+        for (int node = 2 * index; node <= 2 * index + 1; node++) {
+            TranslateTransition slide = slides.get(node);
+            slide.setFromX(fromX);
+            slide.setFromY(fromY);
+            slide.setToX(0);
+            slide.setToY(0);
+            animation.getChildren().add(slide);
+        }
     }
 
     /**
      * Handles zooming animation done by merging or appearance of a new tile.
-     * 
-     * @param r object to animate
+     *
+     * @param index tile to animate
      * @param merge merge or new
+     * @param delay time to wait for the slides to finish
      */
-    private void controlZoomInOutAnimation(Shape s, boolean merge) {
-        transition = new ScaleTransition(
-                Duration.millis(merge ? GameConstants.MERGE_DURATION_TIME
-                        : GameConstants.NEW_TILE_DURATION_TIME), s);
-        transition.setFromX(merge ? GameConstants.MERGE_TILE_START_SCALAR
-                : GameConstants.NEW_TILE_START_SCALAR);
-        transition.setFromY(merge ? GameConstants.MERGE_TILE_START_SCALAR
-                : GameConstants.NEW_TILE_START_SCALAR);
-        transition.setToX(merge ? GameConstants.MERGE_TILE_END_SCALAR
-                : GameConstants.NEW_TILE_END_SCALAR);
-        transition.setToY(merge ? GameConstants.MERGE_TILE_END_SCALAR
-                : GameConstants.NEW_TILE_END_SCALAR);
-        transition.setCycleCount(merge ? 2 : 1);
-        transition.setAutoReverse(true);
-        transition.play();
+    private void zoomTile(int index, boolean merge, Duration delay) {
+        for (int node = 2 * index; node <= 2 * index + 1; node++) {
+            ScaleTransition zoom = zooms.get(node);
+            zoom.setDuration(Duration.millis(merge
+                    ? GameConstants.MERGE_DURATION_TIME
+                    : GameConstants.NEW_TILE_DURATION_TIME));
+            zoom.setDelay(delay);
+            zoom.setFromX(merge ? GameConstants.MERGE_TILE_START_SCALAR
+                    : GameConstants.NEW_TILE_START_SCALAR);
+            zoom.setFromY(merge ? GameConstants.MERGE_TILE_START_SCALAR
+                    : GameConstants.NEW_TILE_START_SCALAR);
+            zoom.setToX(merge ? GameConstants.MERGE_TILE_END_SCALAR
+                    : GameConstants.NEW_TILE_END_SCALAR);
+            zoom.setToY(merge ? GameConstants.MERGE_TILE_END_SCALAR
+                    : GameConstants.NEW_TILE_END_SCALAR);
+            zoom.setCycleCount(merge ? 2 : 1);
+            zoom.setAutoReverse(true);
+            animation.getChildren().add(zoom);
+        }
     }
-    
+
+    /**
+     * Stops the running animation and puts its tiles where they end up, so
+     * fast key presses never leave a tile halfway.
+     */
+    private void finishAnimation() {
+        animation.stop();
+        for (Animation child : animation.getChildren()) {
+            if (child instanceof TranslateTransition) {
+                Node node = ((TranslateTransition) child).getNode();
+                node.setTranslateX(0);
+                node.setTranslateY(0);
+            } else {
+                Node node = ((ScaleTransition) child).getNode();
+                node.setScaleX(1);
+                node.setScaleY(1);
+            }
+        }
+        animation.getChildren().clear();
+    }
+
+    /**
+     * Changes the color, text and font of a tile to show a value.
+     *
+     * @param tile tile to change
+     * @param tileText text on top of the tile
+     * @param exponent log2 of the value to show, 0 for an empty tile
+     */
+    private void updateTile(Tile tile, TileText tileText, int exponent) {
+
+        // Empty tiles get the default color and no text
+        TileStyle style = TileStyle.forExponent(exponent);
+        tile.setFill(style.getFill());
+        tileText.setText(style.getText());
+        tileText.setFill(style.getTextFill());
+        tileText.setFont(style.getFont());
+    }
+
     /**
      * Gives the user the option to type in a new name for the saved file.
      */
     private void handleInteractiveSaveBoard() {
-        
+
         // Let the user save, or not save!
-        JFrame endGameFrame = new JFrame();
-        endGameFrame.setTitle("Play 2048!");
-        endGameFrame.setSize(400, 300);
-        endGameFrame.setLocationRelativeTo(null);
+        Stage endGameStage = new Stage();
+        endGameStage.setTitle("Play 2048!");
 
         // Two user buttons
-        JButton yes = new JButton("Save!");
-        JButton no = new JButton("No thanks.");
-
-        // Text field to type in file
-        JTextField outputFile = new JTextField();
-        outputFile.setPreferredSize(new Dimension(350, 30));
-        outputFile.setUI(new HintTextField(
-                "If you wish to save to .board file, type it here or click Save",
-                false));
-        outputFile.addKeyListener(new KeyListener() {
-            @Override
-            public void keyTyped(java.awt.event.KeyEvent e) {}
-            
-            @Override
-            public void keyPressed(java.awt.event.KeyEvent e) {
-                if (e.getKeyCode() == GameConstants.ENTER_BUTTON) yes.doClick();
-            }
+        Button yes = new Button("Save!");
+        Button no = new Button("No thanks.");
 
-            @Override
-            public void keyReleased(java.awt.event.KeyEvent e) {}
-            
-        });
-//            inputFile.setHorizontalAlignment(JTextField.CENTER);
+        // Text field to type in file, pressing enter is the same as Save!
+        TextField outputFile = new TextField();
+        outputFile.setPrefWidth(350);
+        outputFile.setPromptText(
+                "If you wish to save to .board file, type it here or click Save");
+        outputFile.setOnAction(e -> yes.fire());
 
         // If user clicks yes button, save the file to what they want
-        yes.addActionListener((java.awt.event.ActionEvent e) -> {
+        yes.setOnAction(e -> {
             try {
                 if (outputFile.getText().isEmpty()) {
                     outputFile.setText(outputBoard);
                 }
-                board.saveBoard(outputFile.getText());
-            } catch (IOException ex) {
+                saveInBackground(outputFile.getText());
+            } catch (InvalidPathException ex) {
                 Logger.getLogger(Game2048.class.getName()).log(
                         Level.SEVERE, null, ex);
             }
-            System.exit(0);
+            exit();
         });
 
         // Otherwise, don't save and just exit..
-        no.addActionListener((java.awt.event.ActionEvent e) -> {
-            System.exit(0);
-        });
-        
-        endGameFrame.setDefaultCloseOperation(
-                WindowConstants.EXIT_ON_CLOSE);
+        no.setOnAction(e -> exit());
+        endGameStage.setOnCloseRequest(e -> exit());
 
         // Show the user their choices for saving
-        JPanel userChoices = new JPanel();
-        userChoices.add(outputFile, BorderLayout.NORTH);
-        userChoices.add(yes, BorderLayout.CENTER);
-        userChoices.add(no, BorderLayout.SOUTH);
-        endGameFrame.add(userChoices);
-        endGameFrame.setVisible(true);
+        endGameStage.setScene(new Scene(userChoices(outputFile, yes, no),
+                400, 300));
+        endGameStage.show();
     }
-    
+
+    /**
+     * Lays out a text field above its buttons, like the start and save
+     * windows show them.
+     *
+     * @param choices text field first, then the rest in order
+     * @return pane holding all of them
+     */
+    private static Pane userChoices(Node... choices) {
+        FlowPane userChoices = new FlowPane(10, 10, choices);
+        userChoices.setAlignment(Pos.TOP_CENTER);
+        userChoices.setPadding(new Insets(10));
+        return userChoices;
+    }
+
     /**
      * Handles the game over GUI.
      */
@@ -397,10 +653,8 @@ public class Game2048 extends Application {
 
         // Create the overlay
         Rectangle gameOverRect = new Rectangle();
-        gameOverRect.setWidth(
-                (GameConstants.TILE_WIDTH + 20) * board.GRID_SIZE);
-        gameOverRect.setHeight(
-                (GameConstants.TILE_WIDTH + 20) * (board.GRID_SIZE + 1));
+        gameOverRect.widthProperty().bind(layout.widthProperty());
+        gameOverRect.heightProperty().bind(layout.heightProperty());
         gameOverRect.setFill(GameConstants.COLOR_GAME_OVER);
         gameOverRect.setBlendMode(BlendMode.OVERLAY);
 
@@ -408,13 +662,30 @@ public class Game2048 extends Application {
         layout.getChildren().addAll(gameOverRect, gameOverText);
 
         // Save the board to outputBoard
-        try {
-            board.saveBoard(outputBoard);
-        } catch (IOException ex) {
-            Logger.getLogger(Game2048.class.getName()).log(
-                            Level.SEVERE, null, ex);
-        }
+        saveInBackground(outputBoard);
+    }
 
+    /**
+     * Saves a copy of the board without waiting for the disk, and logs the
+     * error if the save fails.
+     *
+     * @param fileName file to save to
+     */
+    private void saveInBackground(String fileName) {
+        saver.save(board, Paths.get(fileName)).whenComplete((file, ex) -> {
+            if (ex != null) {
+                Logger.getLogger(Game2048.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            }
+        });
+    }
+
+    /**
+     * Waits for the saves still being written, then exits.
+     */
+    private void exit() {
+        saver.close();
+        System.exit(0);
     }
     
     /**
@@ -434,23 +705,10 @@ public class Game2048 extends Application {
             // We only want to deal with keys if the game is in session
             if (!board.isGameOver()) {
 
-                if (transition != null &&
-                        transition.getStatus() == Animation.Status.RUNNING) {
-                    
-                    transition.setDelay(Duration.ZERO);
-                }
-                
                 // Tracking successful moves for continuation of game
                 boolean successfulMove = false;
-                
-                // Save the old point for transition
-//                for (int index = 0; index < tiles.size(); index++) {
-//                    tiles.get(index).setOldPt(
-//                            new Point(index % tiles.size(), 
-//                                    index / tiles.size() + 1));
-//                }
 
-                board.clearNewTiles();
+                board.clearTileEvents();
 
                 // Handle key pressed events
                 switch (e.getCode().getName()) {
@@ -477,6 +735,12 @@ public class Game2048 extends Application {
                 if (successfulMove) {
                     board.addRandomTile();
 
+                    // Autosave now and then, the writing is done elsewhere
+                    if (GameConstants.AUTOSAVE_MOVES > 0 && ++moveCount
+                            % GameConstants.AUTOSAVE_MOVES == 0) {
+                        saveInBackground(outputBoard);
+                    }
+
                     // Update the tile colors and texts and score of the game
                     updateGUIBoard();
                 }
@@ -507,160 +771,105 @@ public class Game2048 extends Application {
     /**
      * Handles the user input of the initial window.
      */
-    private class InputFileHandler extends JFrame {
+    private class InputFileHandler extends Stage {
 
-        private final JButton yes, no;
-        private final JTextField inputFile;
-        private final int boardSize;
-        private boolean finished = false;
+        private final Button yes, no;
+        private final TextField inputFile;
+        private final ComboBox<Integer> boardSize;
 
         /**
-         * Creates a JFrame window for user to input a file.
+         * Creates a window for user to input a file.
          * 
-         * @param boardSize 
+         * @param boardSize size picked for a new board
+         * @param inputBoard board file to load right away, or null
          */
-        InputFileHandler(int boardSize) {
-            this.boardSize = boardSize;
+        InputFileHandler(int boardSize, String inputBoard) {
 
             // Draw the window
             setTitle("Play 2048!");
-            setSize(400, 300);
 
             // Add two buttons for user
-            yes = new JButton("I'm ready to play!");
-            no = new JButton("Cancel");
-            yes.addActionListener(new ButtonListener(this));
-            no.addActionListener(new ButtonListener(this));            
+            yes = new Button("I'm ready to play!");
+            no = new Button("Cancel");
+            yes.setOnAction(e -> handleReady());
+            no.setOnAction(e -> System.exit(0));
 
             // Add text field to input existing .board file
-            inputFile = new JTextField();
-            inputFile.setPreferredSize(new Dimension(350, 30));
-            inputFile.setUI(new HintTextField(
-                    "If you wish to use a saved .board file, type it here.",
-                    false));
-            
+            inputFile = new TextField();
+            inputFile.setPrefWidth(350);
+            inputFile.setPromptText(
+                    "If you wish to use a saved .board file, type it here.");
+
             // If they press enter, it's the same as clicking 'I'm ready'
-            inputFile.addKeyListener(new KeyListener() {
-                @Override
-                public void keyTyped(java.awt.event.KeyEvent e) {}
+            inputFile.setOnAction(e -> yes.fire());
 
-                @Override
-                public void keyPressed(java.awt.event.KeyEvent e) {
-                    if (e.getKeyCode() == GameConstants.ENTER_BUTTON) yes.doClick();
-                }
+            // Size of a new board, used when no .board file is given
+            this.boardSize = new ComboBox<>();
+            for (int size = GameConstants.MIN_BOARD_SIZE;
+                    size <= GameConstants.MAX_BOARD_SIZE; size++) {
+                this.boardSize.getItems().add(size);
+            }
+            this.boardSize.setValue(boardSize);
 
-                @Override
-                public void keyReleased(java.awt.event.KeyEvent e) {}
-            });
-//            inputFile.setHorizontalAlignment(JTextField.CENTER);
+            // Add the buttons & text field to the window, and show it
+            setScene(new Scene(userChoices(inputFile,
+                    new Label("Board size"), this.boardSize, yes, no),
+                    400, 300));
+            centerOnScreen();
+            show();
 
-            // Create the panel and add the buttons & text field to it
-            JPanel userChoices = new JPanel();
-            userChoices.add(inputFile, BorderLayout.NORTH);
-            userChoices.add(yes, BorderLayout.CENTER);
-            userChoices.add(no, BorderLayout.SOUTH);
-            
-            // Add the panel to the JFrame, and show it to the user
-            add(userChoices);
-            setLocationRelativeTo(null);
-            setVisible(true);
-            
             // If the X on the window is clicked, the program will stop
-            setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+            setOnCloseRequest(e -> System.exit(0));
+
+            // A board given on the command line is loaded right away
+            if (inputBoard != null) {
+                inputFile.setText(inputBoard);
+                handleReady();
+            }
         }
 
         /**
-         * Is the handler done running?
-         * 
-         * @return true if done
+         * The user is ready to play: read the board in the background, one
+         * try at a time.
          */
-        public boolean isFinished() {
-            return finished;
+        private void handleReady() {
+            String inputBoard = inputFile.getText();
+            int size = boardSize.getValue();
+            yes.setDisable(true);
+            CompletableFuture.supplyAsync(
+                    () -> loadBoard(inputBoard, size))
+                    .whenComplete((loaded, ex) ->
+                            Platform.runLater(() -> handleLoaded(loaded, ex)));
         }
-        
+
         /**
-         * Handles the buttons on the initial user window.
+         * Hands the loaded board to the game, or lets the user try again.
+         * Runs on the JavaFX thread.
+         *
+         * @param loaded board, null if the file is formatted wrong
+         * @param ex exception thrown while reading, if any
          */
-        private class ButtonListener implements ActionListener {
-
-            // Reference to the InputFileHandler JFrame
-            private final JFrame frame;
-
-            /**
-             * Creates a listener for the passed in JFrame.
-             * 
-             * @param frame 
-             */
-            ButtonListener(JFrame frame) {
-                this.frame = frame;
-            }
+        private void handleLoaded(Board loaded, Throwable ex) {
+            if (loaded != null) {
 
-            /**
-             * Listens for an action performed, and executes when called on
-             * by the event handler.
-             * 
-             * @param e ActionEvent reference
-             */
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                
-                // The user is ready to play
-                if (e.getActionCommand().equals("I'm ready to play!")) {
-                    
-                    // If the file doesn't end in .board, don't bother
-                    if (inputFile.getText().endsWith(".board")) {
-
-                        // Check if the file is in the right format!
-                        if (!Board.isInputFileCorrectFormat(
-                                inputFile.getText())) {
-
-                            // If not, try again! Display the error message.
-                            inputFile.setText("");
-                            HintTextField newHTF = new HintTextField(
-                                    "SEVERE: Be sure the format of the .board "
-                                    + "file is correct.",
-                                    false);
-                            inputFile.setUI(newHTF);
-                            newHTF.setColor(java.awt.Color.RED);
-                            return;
-                        } 
-
-                        try {
-                            // Create a new board with the given file
-                            board = new Board(inputFile.getText(),
-                                    new Random());
-                            
-                        } // Some file exception
-                        catch (IOException ex) {
-                            Logger.getLogger(Game2048.class.getName()).log(
-                                    Level.SEVERE, null, ex);
-                        }
-                    } 
-
-                    // If there's no .board file specified, create a new one
-                    else {
-                        
-                        // New default board
-                        board = new Board(boardSize, new Random());
-                    }
-                    
-                    // Lets the program know that InputFileHandler is done
-                    finished = true;
-
-                    // Hide the option window
-                    frame.setVisible(false);
-                }
+                // Hide the option window and start the game
+                hide();
+                boardReady.complete(loaded);
+                return;
+            }
+            if (ex != null) {
+                Logger.getLogger(Game2048.class.getName()).log(
+                        Level.SEVERE, null, ex);
+            }
 
-                // The user clicked something other than 'I'm Ready to Play'
-                else {
+            // Try again! Display the error message.
+            inputFile.setText("");
+            inputFile.setPromptText(
+                    "SEVERE: Be sure the format of the .board file is correct.");
+            inputFile.setStyle("-fx-prompt-text-fill: red;");
+            yes.setDisable(false);
+        }
 
-                    // Exit the program
-                    System.exit(0);
-                }
-            }
-            
-        } // End of ButtonListener class
-        
     } // End of InputFileHandler class
 
 } // End of Gui2048 class
\ No newline at end of file
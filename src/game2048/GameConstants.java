@@ -20,9 +20,16 @@ public final class GameConstants {
     // Board constants
     public static final int NUM_START_TILES = 2;
     public static final int TWO_PROBABILITY = 90;
+    public static final int MIN_BOARD_SIZE = 3;
+    public static final int MAX_BOARD_SIZE = 16;
+    public static final int DEFAULT_BOARD_SIZE = 4;
+    // Larger boards are drawn on a canvas unless asked otherwise
+    public static final int NODE_RENDERER_MAX_SIZE = 6;
 
     // Default tile size
     public static final int TILE_WIDTH = 106;
+    // Space between two tiles
+    public static final int TILE_GAP = 15;
 
     // Low value tiles (2, 4, 8, 16, 32, 64)
     public static final int TEXT_SIZE_LOW = 55;
@@ -54,18 +61,32 @@ public final class GameConstants {
     public static final Color COLOR_512 = Color.rgb(237, 200, 80);
     public static final Color COLOR_1024 = Color.rgb(237, 197, 63);
     public static final Color COLOR_2048 = Color.rgb(237, 194, 46);
+    public static final Color COLOR_4096 = Color.rgb(60, 58, 50);
+    public static final Color COLOR_8192 = Color.rgb(50, 48, 41);
+    public static final Color COLOR_16384 = Color.rgb(40, 38, 33);
+    public static final Color COLOR_32768 = Color.rgb(30, 29, 25);
+    public static final Color COLOR_65536 = Color.rgb(20, 19, 16);
+    public static final Color COLOR_131072 = Color.rgb(10, 10, 8);
     public static final Color COLOR_OTHER = Color.BLACK;
     public static final Color COLOR_GAME_OVER = Color.rgb(238, 228, 218, 0.73);
 
+    // Fill colors by the log2 exponent of the tile value
+    private static final Color[] TILE_COLORS = {
+        COLOR_EMPTY, COLOR_2, COLOR_4, COLOR_8, COLOR_16, COLOR_32, COLOR_64,
+        COLOR_128, COLOR_256, COLOR_512, COLOR_1024, COLOR_2048, COLOR_4096,
+        COLOR_8192, COLOR_16384, COLOR_32768, COLOR_65536, COLOR_131072
+    };
+
     // Color for tiles >= 8
     public static final Color COLOR_VALUE_LIGHT = Color.rgb(249, 246, 242);
     // Color for tiles < 8
     public static final Color COLOR_VALUE_DARK = Color.rgb(119, 110, 101);
     
-    // Key constants (from KeyCode)
-    public static final int ENTER_BUTTON = 10;
+    // Save the board in the background every so many moves (0 is never)
+    public static final int AUTOSAVE_MOVES = 10;
     
     // Animation constants
+    public static final int SLIDE_DURATION_TIME = 100;
     public static final int MERGE_DURATION_TIME = 150;
     public static final float MERGE_TILE_START_SCALAR = 1f;
     public static final float MERGE_TILE_END_SCALAR = 1.25f;
@@ -74,38 +95,14 @@ public final class GameConstants {
     public static final float NEW_TILE_END_SCALAR = 1f;
     
     /**
-     * Returns a specific tile's color.
+     * Returns the color of a tile exponent.
      *
-     * @param tileVal
-     * @return new color of the tile
+     * @param exponent log2 of the tile value, 0 for an empty tile
+     * @return color of the tile
      */
-    public static final Color getNewTileColor(int tileVal) {
-        switch (tileVal) {
-            case 2:
-                return GameConstants.COLOR_2;
-            case 4:
-                return GameConstants.COLOR_4;
-            case 8:
-                return GameConstants.COLOR_8;
-            case 16:
-                return GameConstants.COLOR_16;
-            case 32:
-                return GameConstants.COLOR_32;
-            case 64:
-                return GameConstants.COLOR_64;
-            case 128:
-                return GameConstants.COLOR_128;
-            case 256:
-                return GameConstants.COLOR_256;
-            case 512:
-                return GameConstants.COLOR_512;
-            case 1024:
-                return GameConstants.COLOR_1024;
-            case 2048:
-                return GameConstants.COLOR_2048;
-            default:
-                return GameConstants.COLOR_OTHER;
-        }
+    public static final Color getTileColor(int exponent) {
+        return exponent < TILE_COLORS.length ? TILE_COLORS[exponent]
+                : COLOR_OTHER;
     }
 
 }
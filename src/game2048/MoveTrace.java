@@ -0,0 +1,76 @@
+package game2048;
+
+/**
+ * Sample entry
+ * <p/>
+ *   bits:  0-14 source tile, 15-29 destination tile, 30 merged
+ * <p/>
+ *
+ * This class records where the tiles of the last move went, so the window
+ * can slide them there. Every tile that moved or merged gets one entry,
+ * packed into an int; tiles are numbered row * GRID_SIZE + column like the
+ * rest of Board. The entries live in one array that is reused from move to
+ * move and only grows when a move has more entries than ever before.
+ */
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author David
+ */
+public final class MoveTrace {
+
+    // Largest tile number an entry can hold
+    public static final int MAX_CELL = (1 << 15) - 1;
+
+    // Entry bits
+    private static final int DESTINATION_SHIFT = 15;
+    private static final int MERGED = 1 << 30;
+
+    // Packed entries, the first size of them are used
+    private int[] entries = new int[16];
+    private int size;
+
+    /**
+     * Forgets all entries, keeping the buffer.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Records a tile that moved.
+     *
+     * @param source tile it came from
+     * @param destination tile it ended up on
+     * @param merged it merged with the tile already there
+     */
+    void add(int source, int destination, boolean merged) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = source | destination << DESTINATION_SHIFT
+                | (merged ? MERGED : 0);
+    }
+
+    // Return the number of entries
+    public int size() {
+        return size;
+    }
+
+    // Return the tile the i'th entry came from
+    public int getSource(int i) {
+        return entries[i] & MAX_CELL;
+    }
+
+    // Return the tile the i'th entry ended up on
+    public int getDestination(int i) {
+        return (entries[i] >>> DESTINATION_SHIFT) & MAX_CELL;
+    }
+
+    // Return whether the i'th entry merged with the tile already there
+    public boolean isMerged(int i) {
+        return (entries[i] & MERGED) != 0;
+    }
+}
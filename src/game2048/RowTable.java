@@ -0,0 +1,259 @@
+package game2048;
+
+/**
+ * Sample row
+ * <p/>
+ *   column:   0    1    2    3
+ *   bits:   0-3  4-7 8-11 12-15
+ * <p/>
+ *
+ * This class holds the transition of every possible row of a given width.
+ * A row is packed into 4 bits per tile, one log2 exponent per tile (0 is an
+ * empty tile), so the table is indexed directly by the packed row. Each
+ * entry holds the resulting row, a changed flag and the columns that got
+ * merged; the score gained is kept in its own table, since it doesn't
+ * depend on the direction.
+ *
+ * There is one table per width from MIN_WIDTH to MAX_WIDTH, built the first
+ * time it is asked for. Wider rows would not fit an entry, and their
+ * tables would grow 16 times with every column. The 4 tile table is the
+ * one BitBoard uses, so it is built when the class is loaded and can be
+ * reached through the static methods.
+ *
+ * Rows are slid the same way as Board does it: tiles slide as far as they
+ * can, and every tile merges at most once per move. Two 2^15 tiles are left
+ * alone, since the merged tile wouldn't fit in 4 bits.
+ */
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author David
+ */
+public final class RowTable {
+
+    // Tiles per row of the static table
+    public static final int ROW_LENGTH = 4;
+
+    // Largest exponent a nibble can hold
+    public static final int MAX_EXPONENT = 0xF;
+
+    // Number of possible 16 bit rows
+    public static final int ROW_COUNT = 1 << (ROW_LENGTH * 4);
+
+    // Narrowest and widest rows that get a table
+    public static final int MIN_WIDTH = 2;
+    public static final int MAX_WIDTH = 4;
+
+    // Entry flag: the row is different after the move
+    public static final int CHANGED = 1 << 16;
+
+    // Entry bits holding the merged columns of the resulting row
+    private static final int MERGES_SHIFT = 17;
+
+    // Tables built so far, by width
+    private static final RowTable[] TABLES = new RowTable[MAX_WIDTH + 1];
+
+    // The 4 tile table behind the static methods
+    private static final RowTable FOUR = forWidth(ROW_LENGTH);
+
+    // Tiles per row of this table
+    private final int width;
+
+    // Transitions when sliding toward column 0 / toward the last column
+    private final int[] towardStart;
+    private final int[] towardEnd;
+
+    // Score gained by moving a row (the same either way)
+    private final int[] scores;
+
+    private RowTable(int width) {
+        this.width = width;
+        int rowCount = 1 << (width * 4);
+        towardStart = new int[rowCount];
+        towardEnd = new int[rowCount];
+        scores = new int[rowCount];
+
+        int[] line = new int[width];
+        for (int row = 0; row < rowCount; row++) {
+
+            // Unpack the row, slide it toward column 0
+            for (int column = 0; column < width; column++) {
+                line[column] = (row >>> (column * 4)) & MAX_EXPONENT;
+            }
+            int merges = slide(line);
+            for (int column = 0; column < width; column++) {
+                if ((merges & (1 << column)) != 0) {
+                    scores[row] += 1 << line[column];
+                }
+            }
+            int result = pack(line);
+            towardStart[row] = entry(row, result, merges);
+
+            // Sliding toward the last column is the same as sliding the
+            // reversed row
+            int reversed = reverse(row);
+            towardEnd[reversed] = entry(reversed, reverse(result),
+                    reverseMask(merges));
+        }
+    }
+
+    /**
+     * Returns the table for rows of a given width, building it the first
+     * time.
+     *
+     * @param width tiles per row
+     * @return the table, or null if rows this wide don't get one
+     */
+    public static RowTable forWidth(int width) {
+        if (width < MIN_WIDTH || width > MAX_WIDTH) {
+            return null;
+        }
+        synchronized (TABLES) {
+            if (TABLES[width] == null) {
+                TABLES[width] = new RowTable(width);
+            }
+            return TABLES[width];
+        }
+    }
+
+    /**
+     * Looks up a 4 tile row slid toward column 0.
+     *
+     * @param row packed row
+     * @return table entry
+     */
+    public static int towardStart(int row) {
+        return FOUR.towardStart[row];
+    }
+
+    /**
+     * Looks up a 4 tile row slid toward column 3.
+     *
+     * @param row packed row
+     * @return table entry
+     */
+    public static int towardEnd(int row) {
+        return FOUR.towardEnd[row];
+    }
+
+    /**
+     * Returns the score gained by moving a 4 tile row, either way.
+     *
+     * @param row packed row
+     * @return sum of the merged tiles
+     */
+    public static int score(int row) {
+        return FOUR.scores[row];
+    }
+
+    /**
+     * Looks up a row of this table's width slid toward column 0.
+     *
+     * @param row packed row
+     * @return table entry
+     */
+    public int slideTowardStart(int row) {
+        return towardStart[row];
+    }
+
+    /**
+     * Looks up a row of this table's width slid toward the last column.
+     *
+     * @param row packed row
+     * @return table entry
+     */
+    public int slideTowardEnd(int row) {
+        return towardEnd[row];
+    }
+
+    /**
+     * Returns the score gained by moving a row of this table's width.
+     *
+     * @param row packed row
+     * @return sum of the merged tiles
+     */
+    public int scoreOf(int row) {
+        return scores[row];
+    }
+
+    // Return the tiles per row of this table
+    public int getWidth() {
+        return width;
+    }
+
+    // Return the packed row of an entry
+    public static int result(int entry) {
+        return entry & 0xFFFF;
+    }
+
+    // Return whether an entry changes its row
+    public static boolean changed(int entry) {
+        return (entry & CHANGED) != 0;
+    }
+
+    // Return a bit per column of the resulting row that holds a merged tile
+    public static int merges(int entry) {
+        return entry >>> MERGES_SHIFT;
+    }
+
+    private static int entry(int row, int result, int merges) {
+        return result | (result != row ? CHANGED : 0)
+                | merges << MERGES_SHIFT;
+    }
+
+    /**
+     * Slides and merges a row of exponents toward index 0.
+     *
+     * @return bit mask of the indices holding a merged tile
+     */
+    private static int slide(int[] line) {
+        int merges = 0;
+        int target = 0;
+        int pending = 0;
+        for (int column = 0; column < line.length; column++) {
+            int exponent = line[column];
+            if (exponent == 0) {
+                continue;
+            }
+            if (exponent == pending && exponent < MAX_EXPONENT) {
+                line[target - 1] = exponent + 1;
+                merges |= 1 << (target - 1);
+                pending = 0;
+            } else {
+                line[target++] = exponent;
+                pending = exponent;
+            }
+        }
+        Arrays.fill(line, target, line.length, 0);
+        return merges;
+    }
+
+    private static int pack(int[] line) {
+        int row = 0;
+        for (int column = 0; column < line.length; column++) {
+            row |= line[column] << (column * 4);
+        }
+        return row;
+    }
+
+    private int reverse(int row) {
+        int reversed = 0;
+        for (int column = 0; column < width; column++) {
+            reversed |= ((row >>> (column * 4)) & MAX_EXPONENT)
+                    << ((width - 1 - column) * 4);
+        }
+        return reversed;
+    }
+
+    private int reverseMask(int mask) {
+        int reversed = 0;
+        for (int column = 0; column < width; column++) {
+            if ((mask & (1 << column)) != 0) {
+                reversed |= 1 << (width - 1 - column);
+            }
+        }
+        return reversed;
+    }
+}
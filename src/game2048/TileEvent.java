@@ -0,0 +1,27 @@
+package game2048;
+
+/**
+ * This class lists what can happen to a tile during a move, so the window
+ * knows which tiles to animate. Board keeps one event per tile in a byte
+ * array, indexed row * GRID_SIZE + column, and clears it in one go before
+ * every move.
+ */
+
+/**
+ *
+ * @author David
+ */
+public final class TileEvent {
+
+    // Nothing happened to the tile
+    public static final byte NONE = 0;
+
+    // A random tile was spawned here
+    public static final byte NEW = 1;
+
+    // Two tiles merged into this one
+    public static final byte MERGE = 2;
+
+    private TileEvent() {
+    }
+}
@@ -0,0 +1,131 @@
+package game2048;
+
+/**
+ * This class holds how a tile of each value looks: its fill, the color,
+ * font and text of its label, and the size of that label. The styles are
+ * worked out once, indexed by the log2 exponent of the tile (0 is an empty
+ * tile), so the window can restyle a tile with a single array lookup
+ * instead of picking colors and fonts after every move.
+ *
+ * Labels that would not fit on a tile get a smaller font. Tiles above
+ * 2^MAX_EXPONENT can't happen in a normal game, so their styles are only
+ * made the first time they are asked for, like the glyphs of
+ * CanvasRenderer, and kept from then on.
+ */
+
+import javafx.geometry.Bounds;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.Text;
+
+/**
+ *
+ * @author David
+ */
+public final class TileStyle {
+
+    // Largest exponent with a style in the table
+    public static final int MAX_EXPONENT = 17;
+
+    // Widest a label may be on a tile of the default size
+    private static final double MAX_TEXT_WIDTH =
+            GameConstants.TILE_WIDTH * 0.9;
+
+    // Styles by exponent, up to MAX_EXPONENT made up front and the rest
+    // when first asked for
+    private static final TileStyle[] STYLES =
+            new TileStyle[Board.MAX_EXPONENT + 1];
+
+    static {
+        for (int exponent = 0; exponent <= MAX_EXPONENT; exponent++) {
+            STYLES[exponent] = new TileStyle(exponent);
+        }
+    }
+
+    private final Color fill;
+    private final Color textFill;
+    private final Font font;
+    private final String text;
+
+    // Size of the label in font, at the default tile size
+    private final double textWidth;
+    private final double textHeight;
+
+    private TileStyle(int exponent) {
+        fill = GameConstants.getTileColor(exponent);
+        textFill = exponent < 3 ? GameConstants.COLOR_VALUE_DARK
+                : GameConstants.COLOR_VALUE_LIGHT;
+        text = exponent == 0 ? "" : Long.toString(Board.valueOf(exponent));
+
+        // 2 and 4, up to 512, from 1024 on
+        Font tierFont = exponent < 3 ? GameConstants.LOW_VALUE_FONT
+                : exponent < 10 ? GameConstants.MID_VALUE_FONT
+                : GameConstants.HIGH_VALUE_FONT;
+        Bounds bounds = measure(text, tierFont);
+        if (bounds.getWidth() > MAX_TEXT_WIDTH) {
+            tierFont = Font.font(tierFont.getFamily(),
+                    FontWeight.BOLD, tierFont.getSize()
+                    * MAX_TEXT_WIDTH / bounds.getWidth());
+            bounds = measure(text, tierFont);
+        }
+        font = tierFont;
+        textWidth = bounds.getWidth();
+        textHeight = bounds.getHeight();
+    }
+
+    /**
+     * Returns the style of a tile exponent.
+     *
+     * @param exponent log2 of the tile value, 0 for an empty tile, at most
+     *                 Board.MAX_EXPONENT
+     * @return style of the tile
+     */
+    public static TileStyle forExponent(int exponent) {
+        TileStyle style = STYLES[exponent];
+        if (style == null) {
+
+            // All fields are final, so a style made twice by two threads
+            // at once is harmless
+            style = new TileStyle(exponent);
+            STYLES[exponent] = style;
+        }
+        return style;
+    }
+
+    private static Bounds measure(String text, Font font) {
+        Text label = new Text(text);
+        label.setFont(font);
+        return label.getLayoutBounds();
+    }
+
+    // Return the fill of the tile
+    public Color getFill() {
+        return fill;
+    }
+
+    // Return the color of the label
+    public Color getTextFill() {
+        return textFill;
+    }
+
+    // Return the font of the label, at the default tile size
+    public Font getFont() {
+        return font;
+    }
+
+    // Return the label, empty for an empty tile
+    public String getText() {
+        return text;
+    }
+
+    // Return the width of the label, at the default tile size
+    public double getTextWidth() {
+        return textWidth;
+    }
+
+    // Return the height of the label, at the default tile size
+    public double getTextHeight() {
+        return textHeight;
+    }
+}
@@ -0,0 +1,155 @@
+package game2048;
+
+/**
+ * This class hashes boards of one size the Zobrist way: every tile and
+ * exponent has a random 64 bit key, and a board hashes to the XOR of the
+ * keys of its tiles (empty tiles have key 0). Changing one tile only takes
+ * two XORs, so Board keeps its hash up to date as it goes instead of
+ * hashing the whole grid when asked.
+ *
+ * The canonical hash of a board is the smallest of the hashes of its 8
+ * rotations and mirrorings (see BoardSnapshot), so it doesn't change when
+ * the board is rotated or mirrored. Keeping all 8 up to date would make
+ * every move several times slower on large boards, so it is worked out
+ * from the tiles when asked for.
+ *
+ * There is one instance per board size, built the first time it is asked
+ * for. The keys come from a fixed seed, so hashes are the same from run to
+ * run and can be stored.
+ */
+
+import java.util.Random;
+
+/**
+ *
+ * @author David
+ */
+public final class Zobrist {
+
+    // Keys per tile, one for every exponent a byte cell can hold
+    private static final int EXPONENTS = Board.MAX_EXPONENT + 1;
+
+    // Seed of the keys, fixed so hashes can be stored between runs
+    private static final long SEED = 0x20485EED2048L;
+
+    // Largest size whose instance is kept, instead of built every time
+    private static final int CACHED_SIZES = GameConstants.MAX_BOARD_SIZE;
+
+    // Instances built so far, by size
+    private static final Zobrist[] INSTANCES = new Zobrist[CACHED_SIZES + 1];
+
+    // Tiles of this size
+    private final int cellCount;
+
+    // Key of every tile and exponent, index tile * EXPONENTS + exponent
+    private final long[] keys;
+
+    // Where every tile ends up under every symmetry,
+    // index symmetry * cellCount + tile, already times EXPONENTS
+    private final int[] images;
+
+    private Zobrist(int size) {
+        cellCount = size * size;
+        keys = new long[cellCount * EXPONENTS];
+        Random random = new Random(SEED + size);
+        for (int index = 0; index < keys.length; index++) {
+            if (index % EXPONENTS != 0) {
+                keys[index] = random.nextLong();
+            }
+        }
+
+        images = new int[BoardSnapshot.SYMMETRIES * cellCount];
+        int last = size - 1;
+        for (int symmetry = 0; symmetry < BoardSnapshot.SYMMETRIES;
+                symmetry++) {
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    int toRow = (symmetry & 4) != 0 ? column : row;
+                    int toColumn = (symmetry & 4) != 0 ? row : column;
+                    if ((symmetry & 1) != 0) {
+                        toColumn = last - toColumn;
+                    }
+                    if ((symmetry & 2) != 0) {
+                        toRow = last - toRow;
+                    }
+                    images[symmetry * cellCount + row * size + column] =
+                            (toRow * size + toColumn) * EXPONENTS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the hashing of boards of a given size.
+     *
+     * @param size size of the board
+     * @return the instance for that size
+     */
+    public static Zobrist forSize(int size) {
+        if (size > CACHED_SIZES) {
+            return new Zobrist(size);
+        }
+        synchronized (INSTANCES) {
+            if (INSTANCES[size] == null) {
+                INSTANCES[size] = new Zobrist(size);
+            }
+            return INSTANCES[size];
+        }
+    }
+
+    /**
+     * Returns the key of one tile. XOR it out of a hash and the key of the
+     * tile's new exponent in, to update the hash.
+     *
+     * @param index tile, row * size + column
+     * @param exponent log2 of the tile, 0 if empty
+     * @return key of the tile, 0 if empty
+     */
+    public long key(int index, int exponent) {
+        return keys[index * EXPONENTS + exponent];
+    }
+
+    /**
+     * Hashes every tile of a board from scratch.
+     *
+     * @param cells tile exponents, indexed like Board.getCells()
+     * @return hash of the board
+     */
+    public long hash(byte[] cells) {
+        return hash(cells, 0);
+    }
+
+    /**
+     * Returns the hash that is the same for all 8 rotations and mirrorings
+     * of a board.
+     *
+     * @param cells tile exponents, indexed like Board.getCells()
+     * @return the smallest hash of the transformed boards, compared
+     *         unsigned
+     */
+    public long canonicalHash(byte[] cells) {
+        long smallest = hash(cells, 0);
+        for (int symmetry = 1; symmetry < BoardSnapshot.SYMMETRIES;
+                symmetry++) {
+            long hash = hash(cells, symmetry);
+            if (Long.compareUnsigned(hash, smallest) < 0) {
+                smallest = hash;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * Hashes a board as it would be after a symmetry.
+     */
+    private long hash(byte[] cells, int symmetry) {
+        int start = symmetry * cellCount;
+        long hash = 0;
+        for (int index = 0; index < cellCount; index++) {
+            if (cells[index] != 0) {
+                hash ^= keys[images[start + index] + cells[index]];
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,105 @@
+package game2048.ai;
+
+/**
+ * This class is a TranspositionTable that many search threads can share
+ * without locks. Every slot is two longs: the value, depth and generation
+ * packed into one, and the board XORed with that packed long in the other.
+ * If two threads write the same slot at once, the two halves won't match up
+ * any more and the slot simply reads as a miss.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * @author David
+ */
+public class ConcurrentTranspositionTable {
+
+    // Layout of a packed slot: value bits, then depth, then generation
+    private static final int DEPTH_SHIFT = 32;
+    private static final int GENERATION_SHIFT = 40;
+
+    // Slots are picked with the top bits of the hash
+    private final int shift;
+
+    // Boards XOR packed data, and the packed data itself
+    private final AtomicLongArray keys;
+    private final AtomicLongArray data;
+
+    // Generation of the current search
+    private volatile int generation = 1;
+
+    /**
+     * Creates a table with 2^bits slots.
+     *
+     * @param bits log2 of the number of slots
+     */
+    public ConcurrentTranspositionTable(int bits) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("Bad table size: " + bits);
+        }
+        shift = 64 - bits;
+        keys = new AtomicLongArray(1 << bits);
+        data = new AtomicLongArray(1 << bits);
+    }
+
+    /**
+     * Looks up a board that was searched at least as deep as asked for.
+     *
+     * @param board packed tiles
+     * @param depth search depth that is needed
+     * @return the stored value, or NaN if there is none
+     */
+    public float get(long board, int depth) {
+        int slot = (int) (TranspositionTable.hash(board) >>> shift);
+        long packed = data.get(slot);
+        if ((keys.get(slot) ^ packed) == board && depthOf(packed) >= depth) {
+            return Float.intBitsToFloat((int) packed);
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Stores the value of a searched board.
+     *
+     * @param board packed tiles
+     * @param depth how deep the board was searched, at least 1
+     * @param value value of the board
+     */
+    public void put(long board, int depth, float value) {
+        int slot = (int) (TranspositionTable.hash(board) >>> shift);
+        long old = data.get(slot);
+        int current = generation;
+
+        // Keep deeper results, but don't let old searches hog the slot
+        if (depthOf(old) <= depth || generationOf(old) != current) {
+            long packed = (Float.floatToRawIntBits(value) & 0xFFFFFFFFL)
+                    | (long) depth << DEPTH_SHIFT
+                    | (long) current << GENERATION_SHIFT;
+            data.set(slot, packed);
+            keys.set(slot, board ^ packed);
+        }
+    }
+
+    /**
+     * Starts a new search. Stored boards stay usable, but can now be
+     * replaced by shallower results.
+     */
+    public void nextGeneration() {
+        generation = generation == 0xFF ? 1 : generation + 1;
+    }
+
+    // Return the number of slots
+    public int size() {
+        return data.length();
+    }
+
+    private static int depthOf(long packed) {
+        return (int) (packed >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    private static int generationOf(long packed) {
+        return (int) (packed >>> GENERATION_SHIFT) & 0xFF;
+    }
+}
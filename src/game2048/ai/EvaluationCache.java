@@ -0,0 +1,308 @@
+package game2048.ai;
+
+/**
+ * Sample bucket (64 bytes, 4 slots)
+ * <p/>
+ *   slot:  long check (board XOR data), long data
+ *   data:  bits 0-31 value, 32-39 depth, 40 referenced
+ * <p/>
+ *
+ * This class keeps the values of searched 4x4 positions from game to game.
+ * Unlike the TranspositionTable of a single search it is meant to be big,
+ * up to hundreds of millions of positions, so it lives outside the Java
+ * heap: the slots are longs in direct buffers of at most a gigabyte each,
+ * and nothing is ever boxed or allocated after the table is made.
+ *
+ * The table is open addressing with buckets of 4 slots, one cache line
+ * each; a board can only go into the bucket its hash points at. When the
+ * bucket is full, a slot is evicted the clock way: every hit marks its
+ * slot as referenced, and the sweep skips (and unmarks) referenced slots,
+ * so positions that keep getting used stay in the table. A board that is
+ * already stored only gets replaced by a search at least as deep.
+ *
+ * Many threads can share one cache. Like ConcurrentTranspositionTable,
+ * every slot stores the board XORed with its data, so a slot torn by two
+ * threads writing at once reads as a miss instead of a wrong value. The
+ * empty board (0) is never stored, since that is what an empty slot looks
+ * like.
+ *
+ * snapshot() writes the whole table to a file and load() reads it back in,
+ * so a warm cache survives restarts. Both use plain channel reads and
+ * writes rather than a memory mapping: a mapped file stays open until the
+ * buffer is garbage collected, and Windows won't replace a file that is
+ * still open. The buffers are kept in the byte order of the file, little
+ * endian, which is also the native order on x86 and ARM, so they are
+ * written out as they are.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * @author David
+ */
+public class EvaluationCache {
+
+    // Slots per bucket, and longs and bytes per bucket
+    private static final int BUCKET_SLOTS = 4;
+    private static final int BUCKET_LONGS = BUCKET_SLOTS * 2;
+    private static final int BUCKET_BYTES = BUCKET_LONGS * Long.BYTES;
+
+    // Bytes per direct buffer (a power of two, at most 2^30)
+    private static final int SEGMENT_SHIFT = 30;
+
+    // Layout of the data long
+    private static final int DEPTH_SHIFT = 32;
+    private static final long REFERENCED = 1L << 40;
+
+    // Snapshot file: magic, version and bucket count, then the buckets
+    private static final int FILE_MAGIC = 0x45564331;
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+
+    // Buckets are picked with the top bits of the hash
+    private final int shift;
+    private final long buckets;
+
+    // Buckets per segment, log2
+    private final int segmentBucketShift;
+
+    // The slots, BUCKET_LONGS longs per bucket, and the same slots as
+    // bytes for reading and writing snapshots
+    private final LongBuffer[] segments;
+    private final ByteBuffer[] segmentBytes;
+
+    // Where the next eviction sweep starts within its bucket. Every thread
+    // bumps it without a lock, so increments do get lost, but that only
+    // means two sweeps start at the same slot. Each sweep still stops at
+    // the first slot that isn't referenced.
+    private int hand;
+
+    /**
+     * Creates an empty cache that uses at most the given memory.
+     *
+     * @param maxBytes memory cap, at least 2 buckets
+     */
+    public EvaluationCache(long maxBytes) {
+        if (maxBytes < 2 * BUCKET_BYTES) {
+            throw new IllegalArgumentException("Cache of " + maxBytes
+                    + " bytes is too small");
+        }
+        buckets = Long.highestOneBit(maxBytes / BUCKET_BYTES);
+        shift = 64 - Long.numberOfTrailingZeros(buckets);
+        segmentBucketShift = SEGMENT_SHIFT
+                - Integer.numberOfTrailingZeros(BUCKET_BYTES);
+
+        long bytes = buckets * BUCKET_BYTES;
+        int segmentSize = (int) Math.min(bytes, 1L << SEGMENT_SHIFT);
+        segments = new LongBuffer[(int) (bytes / segmentSize)];
+        segmentBytes = new ByteBuffer[segments.length];
+        for (int segment = 0; segment < segments.length; segment++) {
+            segmentBytes[segment] = ByteBuffer.allocateDirect(segmentSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            segments[segment] = segmentBytes[segment].asLongBuffer();
+        }
+    }
+
+    /**
+     * Looks up a board that was searched at least as deep as asked for.
+     *
+     * @param board packed tiles
+     * @param depth search depth that is needed
+     * @return the stored value, or NaN if there is none
+     */
+    public float get(long board, int depth) {
+        if (board == 0) {
+            return Float.NaN;
+        }
+        long hash = TranspositionTable.hash(board);
+        LongBuffer segment = segmentOf(hash);
+        int first = firstSlot(hash);
+        for (int slot = first; slot < first + BUCKET_LONGS; slot += 2) {
+            long data = segment.get(slot + 1);
+            if ((segment.get(slot) ^ (data & ~REFERENCED)) == board) {
+                if (depthOf(data) < depth) {
+                    return Float.NaN;
+                }
+                if ((data & REFERENCED) == 0) {
+                    segment.put(slot + 1, data | REFERENCED);
+                }
+                return Float.intBitsToFloat((int) data);
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Stores the value of a searched board.
+     *
+     * @param board packed tiles
+     * @param depth how deep the board was searched, 1 to 255
+     * @param value value of the board
+     */
+    public void put(long board, int depth, float value) {
+        if (board == 0) {
+            return;
+        }
+        long hash = TranspositionTable.hash(board);
+        LongBuffer segment = segmentOf(hash);
+        int first = firstSlot(hash);
+        long data = (Float.floatToRawIntBits(value) & 0xFFFFFFFFL)
+                | (long) depth << DEPTH_SHIFT;
+
+        // The board itself, or else an empty slot
+        int target = -1;
+        for (int slot = first; slot < first + BUCKET_LONGS; slot += 2) {
+            long stored = segment.get(slot + 1);
+            long key = segment.get(slot) ^ (stored & ~REFERENCED);
+            if (key == board) {
+                if (depthOf(stored) > depth) {
+                    return;
+                }
+                target = slot;
+                data |= stored & REFERENCED;
+                break;
+            }
+            if (key == 0 && target < 0) {
+                target = slot;
+            }
+        }
+
+        // Otherwise sweep the bucket for a slot that wasn't used lately
+        if (target < 0) {
+            int start = hand++ & (BUCKET_SLOTS - 1);
+            for (int step = 0; target < 0; step++) {
+                int slot = first + ((start + step) & (BUCKET_SLOTS - 1)) * 2;
+                long stored = segment.get(slot + 1);
+                if ((stored & REFERENCED) == 0) {
+                    target = slot;
+                } else {
+                    segment.put(slot + 1, stored & ~REFERENCED);
+                }
+            }
+        }
+        segment.put(target + 1, data);
+        segment.put(target, board ^ (data & ~REFERENCED));
+    }
+
+    /**
+     * Writes the whole cache to a file, replacing it in one step.
+     *
+     * @param file file to write
+     * @throws IOException if the file can't be written
+     */
+    public void snapshot(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(),
+                absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(FILE_MAGIC).putInt(FILE_VERSION)
+                        .putLong(buckets).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                for (ByteBuffer segment : segmentBytes) {
+                    ByteBuffer source = segment.duplicate();
+                    source.clear();
+                    while (source.hasRemaining()) {
+                        channel.write(source);
+                    }
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates a cache holding a snapshot written by snapshot(). The cache
+     * gets the size it had when the snapshot was taken.
+     *
+     * @param file snapshot file
+     * @return the cache
+     * @throws IOException if the file can't be read or is no snapshot
+     */
+    public static EvaluationCache load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException(file + " is no cache snapshot");
+                }
+            }
+            header.flip();
+            if (header.getInt() != FILE_MAGIC
+                    || header.getInt() != FILE_VERSION) {
+                throw new IOException(file + " is no cache snapshot");
+            }
+            long buckets = header.getLong();
+            if (buckets < 2 || Long.bitCount(buckets) != 1
+                    || channel.size() != FILE_HEADER_SIZE
+                            + buckets * BUCKET_BYTES) {
+                throw new IOException(file + " is not a whole snapshot");
+            }
+
+            EvaluationCache cache = new EvaluationCache(
+                    buckets * BUCKET_BYTES);
+            for (ByteBuffer segment : cache.segmentBytes) {
+                ByteBuffer target = segment.duplicate();
+                target.clear();
+                while (target.hasRemaining()) {
+                    if (channel.read(target) < 0) {
+                        throw new IOException(file
+                                + " is not a whole snapshot");
+                    }
+                }
+            }
+            return cache;
+        }
+    }
+
+    // Return the number of slots
+    public long size() {
+        return buckets * BUCKET_SLOTS;
+    }
+
+    // Return the memory the slots take, in bytes
+    public long memoryBytes() {
+        return buckets * BUCKET_BYTES;
+    }
+
+    private LongBuffer segmentOf(long hash) {
+        return segments[(int) ((hash >>> shift) >>> segmentBucketShift)];
+    }
+
+    // Return the first long of the bucket of a hash within its segment
+    private int firstSlot(long hash) {
+        long bucket = hash >>> shift;
+        return (int) (bucket & ((1L << segmentBucketShift) - 1))
+                * BUCKET_LONGS;
+    }
+
+    private static int depthOf(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+}
@@ -0,0 +1,280 @@
+package game2048.ai;
+
+/**
+ * This class picks moves with an expectimax search over 4x4 boards. The
+ * player's moves are max nodes, and the random tile that follows every move
+ * is a chance node, weighted by where it can land and how likely a 2 or a 4
+ * is. Leaves are scored by the Heuristic.
+ *
+ * The search deepens one move at a time until it reaches its depth or runs
+ * out of time, and keeps the best move of the deepest finished search.
+ * Branches that are very unlikely to happen are cut short, and searched
+ * positions are kept in a TranspositionTable across moves. The table is
+ * keyed by BitBoard.canonical(), so a position and its rotations and
+ * mirrorings share one slot; positions one move from the leaves are keyed
+ * as they are, since they are cheaper to search again than to canonicalize.
+ * An EvaluationCache can be added to keep positions from game to game as
+ * well.
+ */
+
+import game2048.BitBoard;
+import game2048.Board;
+import game2048.Direction;
+import game2048.GameConstants;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author David
+ */
+public class Expectimax {
+
+    // Default search depth, in player moves
+    public static final int DEFAULT_DEPTH = 3;
+
+    // Default transposition table size (2^20 slots)
+    public static final int DEFAULT_TABLE_BITS = 20;
+
+    // Chance branches less likely than this are scored right away
+    private static final double MIN_PROBABILITY = 0.0001;
+
+    // Shallower positions are cheaper to search again than to look up in
+    // the evaluation cache
+    private static final int CACHE_MIN_DEPTH = 2;
+
+    // How often the clock is checked, in nodes
+    private static final int CLOCK_INTERVAL = 1 << 10;
+
+    // Chance of a new tile being a 2 or a 4
+    private static final double TWO_CHANCE =
+            GameConstants.TWO_PROBABILITY / 100.0;
+    private static final double FOUR_CHANCE = 1 - TWO_CHANCE;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Maximum search depth
+    private final int depth;
+
+    // Positions searched so far
+    private final TranspositionTable table;
+
+    // Positions searched by earlier games, null if not kept
+    private EvaluationCache cache;
+
+    // Statistics of the last bestMove call
+    private long nodes;
+    private long elapsedNanos;
+    private int finishedDepth;
+
+    // Deadline of the running search, and whether it has passed
+    private long deadline;
+    private boolean outOfTime;
+
+    /**
+     * Creates a search with the default depth and table size.
+     */
+    public Expectimax() {
+        this(DEFAULT_DEPTH, DEFAULT_TABLE_BITS);
+    }
+
+    /**
+     * Creates a search.
+     *
+     * @param depth maximum search depth, in player moves
+     * @param tableBits log2 of the transposition table size
+     */
+    public Expectimax(int depth, int tableBits) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Bad search depth: " + depth);
+        }
+        this.depth = depth;
+        table = new TranspositionTable(tableBits);
+    }
+
+    /**
+     * Picks the best move for a 4x4 board.
+     *
+     * @param board board to move on
+     * @param budgetMillis time the search may take, in milliseconds. The
+     *                     first search depth is always finished.
+     * @return best direction, or null if no move is possible. Once a tile
+     *         is larger than 2^15 the board can't be packed, and the first
+     *         possible move is played instead.
+     */
+    public Direction bestMove(Board board, long budgetMillis) {
+        if (!BitBoard.canPack(board.getCells())) {
+            return MoveStrategy.firstMove(board);
+        }
+        return bestMove(BitBoard.fromCells(board.getCells()), budgetMillis);
+    }
+
+    /**
+     * Picks the best move for a packed board.
+     *
+     * @param board packed tiles
+     * @param budgetMillis time the search may take, in milliseconds
+     * @return best direction, or null if no move is possible
+     */
+    public Direction bestMove(long board, long budgetMillis) {
+        long start = System.nanoTime();
+        long budget = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        deadline = start + budget < start ? Long.MAX_VALUE : start + budget;
+        outOfTime = false;
+        nodes = 0;
+        finishedDepth = 0;
+        table.nextGeneration();
+
+        Direction best = null;
+        for (int searchDepth = 1; searchDepth <= depth; searchDepth++) {
+            Direction found = searchRoot(board, searchDepth);
+            if (outOfTime && searchDepth > 1) {
+                break;
+            }
+            best = found;
+            finishedDepth = searchDepth;
+            if (best == null || System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Searches every move of the root board to a given depth.
+     */
+    private Direction searchRoot(long board, int searchDepth) {
+        Direction best = null;
+        double bestValue = -1;
+        for (Direction direction : DIRECTIONS) {
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            double value = chanceNode(moved, searchDepth - 1, 1);
+            if (value > bestValue) {
+                bestValue = value;
+                best = direction;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Value of the player to move, the best of all moves.
+     */
+    private double maxNode(long board, int remaining, double probability) {
+        if (remaining == 0 || probability < MIN_PROBABILITY) {
+            return Heuristic.evaluate(board);
+        }
+        long key = tableKey(board, remaining);
+        float stored = table.get(key, remaining);
+        if (!Float.isNaN(stored)) {
+            return stored;
+        }
+        if (cache != null && remaining >= CACHE_MIN_DEPTH) {
+            stored = cache.get(key, remaining);
+            if (!Float.isNaN(stored)) {
+                table.put(key, remaining, stored);
+                return stored;
+            }
+        }
+        if ((++nodes & (CLOCK_INTERVAL - 1)) == 0
+                && System.nanoTime() >= deadline) {
+            outOfTime = true;
+        }
+
+        double best = 0;
+        for (Direction direction : DIRECTIONS) {
+            long moved = BitBoard.move(board, direction);
+            if (moved != board) {
+                best = Math.max(best,
+                        chanceNode(moved, remaining - 1, probability));
+            }
+        }
+
+        // A search cut short by the clock is not worth keeping
+        if (!outOfTime) {
+            table.put(key, remaining, (float) best);
+            if (cache != null && remaining >= CACHE_MIN_DEPTH) {
+                cache.put(key, remaining, (float) best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the key a position is stored under in the transposition
+     * table. Positions one move from the leaves are cheaper to search again
+     * than to canonicalize, so they are keyed as they are.
+     *
+     * @param board packed tiles
+     * @param remaining player moves left to search below the position
+     * @return key of the position
+     */
+    static long tableKey(long board, int remaining) {
+        return remaining > 1 ? BitBoard.canonical(board) : board;
+    }
+
+    /**
+     * Value of the board after a move, the average over every new tile.
+     */
+    private double chanceNode(long board, int remaining, double probability) {
+        nodes++;
+        long free = BitBoard.emptyMask(board);
+        int empty = Long.bitCount(free);
+        if (empty == 0 || outOfTime) {
+            return Heuristic.evaluate(board);
+        }
+        double twoProbability = probability * TWO_CHANCE / empty;
+        double fourProbability = probability * FOUR_CHANCE / empty;
+
+        // Walk the empty tiles only, lowest first
+        double total = 0;
+        for (; free != 0; free &= free - 1) {
+            long two = Long.lowestOneBit(free);
+            long four = two << 1;
+            total += TWO_CHANCE * maxNode(board | two, remaining,
+                    twoProbability)
+                    + FOUR_CHANCE * maxNode(board | four, remaining,
+                            fourProbability);
+        }
+        return total / empty;
+    }
+
+    /**
+     * Shares searched positions with other searches and later games
+     * through an evaluation cache.
+     *
+     * @param cache cache to look positions up in and add them to, null to
+     *              keep positions only for this search
+     */
+    public void setCache(EvaluationCache cache) {
+        this.cache = cache;
+    }
+
+    // Return the number of nodes searched by the last bestMove call
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    // Return the search speed of the last bestMove call
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes * 1e9 / elapsedNanos;
+    }
+
+    // Return the time taken by the last bestMove call, in nanoseconds
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Return the deepest search the last bestMove call finished
+    public int getFinishedDepth() {
+        return finishedDepth;
+    }
+
+    // Return the maximum search depth
+    public int getDepth() {
+        return depth;
+    }
+}
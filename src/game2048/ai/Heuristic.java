@@ -0,0 +1,159 @@
+package game2048.ai;
+
+/**
+ * This class scores 4x4 BitBoard positions for the AI players. Every row is
+ * scored once when the class is loaded, so a whole board is scored with 8
+ * table lookups (4 rows and the 4 rows of the transposed board) plus a
+ * check for the largest tile being in a corner, which is looked up per row
+ * as well.
+ *
+ * A row scores higher when it has empty tiles, tiles that can merge, tiles
+ * that only grow in one direction (monotonicity) and neighbours that are
+ * close in value (smoothness).
+ */
+
+import game2048.BitBoard;
+import game2048.RowTable;
+
+/**
+ *
+ * @author David
+ */
+public final class Heuristic {
+
+    // Base score of every row, so that a lost board (0) is always the worst
+    private static final double LOST_PENALTY = 200000;
+
+    // Weights of the row features
+    private static final double EMPTY_WEIGHT = 270;
+    private static final double MERGES_WEIGHT = 700;
+    private static final double MONOTONICITY_POWER = 4;
+    private static final double MONOTONICITY_WEIGHT = 47;
+    private static final double SMOOTHNESS_WEIGHT = 10;
+    private static final double SUM_POWER = 3.5;
+    private static final double SUM_WEIGHT = 11;
+
+    // Bonus per exponent of the largest tile when it sits in a corner
+    private static final double CORNER_WEIGHT = 100;
+
+    // Score of every packed row
+    private static final float[] ROW_SCORES = new float[RowTable.ROW_COUNT];
+
+    // Largest exponent of every packed row, and the largest of its two ends
+    private static final byte[] ROW_LARGEST = new byte[RowTable.ROW_COUNT];
+    private static final byte[] ROW_ENDS = new byte[RowTable.ROW_COUNT];
+
+    static {
+        int[] line = new int[RowTable.ROW_LENGTH];
+        for (int row = 0; row < RowTable.ROW_COUNT; row++) {
+            int largest = 0;
+            for (int column = 0; column < line.length; column++) {
+                line[column] = (row >>> (column * 4)) & RowTable.MAX_EXPONENT;
+                largest = Math.max(largest, line[column]);
+            }
+            ROW_SCORES[row] = (float) scoreLine(line);
+            ROW_LARGEST[row] = (byte) largest;
+            ROW_ENDS[row] = (byte) Math.max(line[0], line[line.length - 1]);
+        }
+    }
+
+    private Heuristic() {
+    }
+
+    /**
+     * Scores a packed board, higher is better.
+     *
+     * @param board packed tiles
+     * @return heuristic score
+     */
+    public static double evaluate(long board) {
+        long transposed = BitBoard.transpose(board);
+        return ROW_SCORES[(int) board & 0xFFFF]
+                + ROW_SCORES[(int) (board >>> 16) & 0xFFFF]
+                + ROW_SCORES[(int) (board >>> 32) & 0xFFFF]
+                + ROW_SCORES[(int) (board >>> 48) & 0xFFFF]
+                + ROW_SCORES[(int) transposed & 0xFFFF]
+                + ROW_SCORES[(int) (transposed >>> 16) & 0xFFFF]
+                + ROW_SCORES[(int) (transposed >>> 32) & 0xFFFF]
+                + ROW_SCORES[(int) (transposed >>> 48) & 0xFFFF]
+                + cornerBonus(board);
+    }
+
+    /**
+     * Rewards keeping the largest tile in one of the four corners. The
+     * corners are the ends of the first and last row.
+     */
+    private static double cornerBonus(long board) {
+        int first = (int) board & 0xFFFF;
+        int last = (int) (board >>> 48) & 0xFFFF;
+        int largest = Math.max(
+                Math.max(ROW_LARGEST[first],
+                        ROW_LARGEST[(int) (board >>> 16) & 0xFFFF]),
+                Math.max(ROW_LARGEST[(int) (board >>> 32) & 0xFFFF],
+                        ROW_LARGEST[last]));
+        int corner = Math.max(ROW_ENDS[first], ROW_ENDS[last]);
+        return corner == largest ? CORNER_WEIGHT * largest : 0;
+    }
+
+    /**
+     * Scores a single row of exponents.
+     */
+    private static double scoreLine(int[] line) {
+        double sum = 0;
+        int empty = 0;
+        int merges = 0;
+        int prev = 0;
+        int counter = 0;
+        for (int exponent : line) {
+            sum += Math.pow(exponent, SUM_POWER);
+            if (exponent == 0) {
+                empty++;
+                continue;
+            }
+
+            // Count runs of equal tiles that are next to each other
+            if (prev == exponent) {
+                counter++;
+            } else if (counter > 0) {
+                merges += 1 + counter;
+                counter = 0;
+            }
+            prev = exponent;
+        }
+        if (counter > 0) {
+            merges += 1 + counter;
+        }
+
+        // Penalize rows that go up and down, and big steps between tiles
+        double monotonicityLeft = 0;
+        double monotonicityRight = 0;
+        double roughness = 0;
+        int previousTile = 0;
+        for (int column = 1; column < line.length; column++) {
+            double left = Math.pow(line[column - 1], MONOTONICITY_POWER);
+            double right = Math.pow(line[column], MONOTONICITY_POWER);
+            if (line[column - 1] > line[column]) {
+                monotonicityLeft += left - right;
+            } else {
+                monotonicityRight += right - left;
+            }
+        }
+        for (int exponent : line) {
+            if (exponent == 0) {
+                continue;
+            }
+            if (previousTile != 0) {
+                roughness += Math.abs(exponent - previousTile);
+            }
+            previousTile = exponent;
+        }
+
+        return LOST_PENALTY
+                + EMPTY_WEIGHT * empty
+                + MERGES_WEIGHT * merges
+                - MONOTONICITY_WEIGHT
+                        * Math.min(monotonicityLeft, monotonicityRight)
+                - SMOOTHNESS_WEIGHT * roughness
+                - SUM_WEIGHT * sum;
+    }
+}
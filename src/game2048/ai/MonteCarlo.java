@@ -0,0 +1,271 @@
+package game2048.ai;
+
+/**
+ * This class picks moves by pure Monte Carlo play-outs. Every possible move
+ * is tried, and from each resulting board a number of games is played to
+ * the end with random moves and random tiles. The move with the best mean
+ * final score wins.
+ *
+ * The play-outs are cut into batches that run as tasks on a ForkJoinPool.
+ * Every batch gets its own SplittableRandom, split off the player's random
+ * on the calling thread, so no random generator is shared between threads
+ * and the same seed always picks the same moves, whatever the thread count.
+ */
+
+import game2048.BitBoard;
+import game2048.Board;
+import game2048.Direction;
+import game2048.GameConstants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *
+ * @author David
+ */
+public class MonteCarlo {
+
+    // Default play-outs per move, and play-outs per task
+    public static final int DEFAULT_PLAYOUTS = 100;
+    public static final int DEFAULT_BATCH_SIZE = 25;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Play-outs per move and per task
+    private final int playouts;
+    private final int batchSize;
+
+    // Threads to play on
+    private final ForkJoinPool pool;
+
+    // Random numbers for the batches, only used on the calling thread
+    private final SplittableRandom random;
+
+    // Statistics of the last bestMove call
+    private long moves;
+    private long elapsedNanos;
+
+    /**
+     * Creates a player on the common pool with the default settings.
+     *
+     * @param seed seed of the play-outs
+     */
+    public MonteCarlo(long seed) {
+        this(DEFAULT_PLAYOUTS, DEFAULT_BATCH_SIZE, ForkJoinPool.commonPool(),
+                seed);
+    }
+
+    /**
+     * Creates a player.
+     *
+     * @param playouts random games played per possible move
+     * @param batchSize random games played per task
+     * @param pool threads to play on, or null to play on the calling thread
+     * @param seed seed of the play-outs
+     */
+    public MonteCarlo(int playouts, int batchSize, ForkJoinPool pool,
+            long seed) {
+        if (playouts < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Bad play-out count: "
+                    + playouts + " in batches of " + batchSize);
+        }
+        this.playouts = playouts;
+        this.batchSize = batchSize;
+        this.pool = pool;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Picks the best move for a 4x4 board.
+     *
+     * @param board board to move on
+     * @return best direction, or null if no move is possible. Once a tile
+     *         is larger than 2^15 the board can't be packed, and the first
+     *         possible move is played instead.
+     */
+    public Direction bestMove(Board board) {
+        if (!BitBoard.canPack(board.getCells())) {
+            return MoveStrategy.firstMove(board);
+        }
+        return bestMove(BitBoard.fromCells(board.getCells()));
+    }
+
+    /**
+     * Picks the best move for a packed board.
+     *
+     * @param board packed tiles
+     * @return best direction, or null if no move is possible
+     */
+    public Direction bestMove(long board) {
+        long start = System.nanoTime();
+
+        // Cut every possible move's play-outs into batches
+        List<Batch> batches = new ArrayList<>();
+        for (Direction direction : DIRECTIONS) {
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            int gained = BitBoard.moveScore(board, direction);
+            for (int done = 0; done < playouts; done += batchSize) {
+                batches.add(new Batch(direction, moved, gained,
+                        Math.min(batchSize, playouts - done), random.split()));
+            }
+        }
+        if (batches.isEmpty()) {
+            elapsedNanos = System.nanoTime() - start;
+            return null;
+        }
+        if (pool == null) {
+            for (Batch batch : batches) {
+                batch.compute();
+            }
+        } else {
+            pool.invoke(new AllBatches(batches));
+        }
+
+        // Add up the batches of every move
+        long[] totals = new long[DIRECTIONS.length];
+        moves = 0;
+        for (Batch batch : batches) {
+            totals[batch.direction.ordinal()] += batch.totalScore;
+            moves += batch.moves;
+        }
+        Direction best = null;
+        for (Direction direction : DIRECTIONS) {
+            if (BitBoard.move(board, direction) != board && (best == null
+                    || totals[direction.ordinal()] > totals[best.ordinal()])) {
+                best = direction;
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Plays one random game to the end.
+     *
+     * @param board packed tiles to start from, before the new tile
+     * @param random random numbers of this play-out
+     * @param moves counts the moves made, at index 0
+     * @return score gained on the way
+     */
+    private static long playout(long board, SplittableRandom random,
+            long[] moves) {
+        long gained = 0;
+        while (true) {
+            board = spawn(board, random);
+
+            // Try the directions in a random order, take the first that moves
+            int first = random.nextInt(DIRECTIONS.length);
+            long moved = board;
+            for (int offset = 0; offset < DIRECTIONS.length; offset++) {
+                Direction direction =
+                        DIRECTIONS[(first + offset) % DIRECTIONS.length];
+                moved = BitBoard.move(board, direction);
+                if (moved != board) {
+                    gained += BitBoard.moveScore(board, direction);
+                    break;
+                }
+            }
+            if (moved == board) {
+                return gained;
+            }
+            board = moved;
+            moves[0]++;
+        }
+    }
+
+    /**
+     * Adds a random tile the same way BitBoard does, but with a
+     * SplittableRandom.
+     */
+    private static long spawn(long board, SplittableRandom random) {
+        int count = BitBoard.countEmpty(board);
+        if (count == 0) {
+            return board;
+        }
+        int location = random.nextInt(count);
+        int exponent = random.nextInt(100) < GameConstants.TWO_PROBABILITY
+                ? 1 : 2;
+        return BitBoard.placeTile(board, location, exponent);
+    }
+
+    // Return the random moves played by the last bestMove call
+    public long getMoveCount() {
+        return moves;
+    }
+
+    // Return the random moves played per second by the last bestMove call
+    public double getMovesPerSecond() {
+        return elapsedNanos == 0 ? 0 : moves * 1e9 / elapsedNanos;
+    }
+
+    // Return the time taken by the last bestMove call, in nanoseconds
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Return the threads this player runs on, null for the calling thread
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Runs all batches at once.
+     */
+    private static final class AllBatches extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Batch> batches;
+
+        AllBatches(List<Batch> batches) {
+            this.batches = batches;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(batches);
+        }
+    }
+
+    /**
+     * A batch of play-outs after one move.
+     */
+    private static final class Batch extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Direction direction;
+        private final long board;
+        private final int gained;
+        private final int count;
+        private final SplittableRandom random;
+
+        // Results once the batch is done
+        private long totalScore;
+        private long moves;
+
+        Batch(Direction direction, long board, int gained, int count,
+                SplittableRandom random) {
+            this.direction = direction;
+            this.board = board;
+            this.gained = gained;
+            this.count = count;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            long[] played = new long[1];
+            for (int game = 0; game < count; game++) {
+                totalScore += gained + playout(board, random, played);
+            }
+            moves = played[0];
+        }
+    }
+}
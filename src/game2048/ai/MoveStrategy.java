@@ -0,0 +1,41 @@
+package game2048.ai;
+
+/**
+ * This interface is anything that can play 2048: given a board, it picks
+ * the next move. Strategies are not expected to be thread safe, so every
+ * game gets its own.
+ */
+
+import game2048.Board;
+import game2048.Direction;
+
+/**
+ *
+ * @author David
+ */
+public interface MoveStrategy {
+
+    /**
+     * Picks the next move.
+     *
+     * @param board board to move on, not changed by the strategy
+     * @return direction to move in, or null to give up
+     */
+    Direction chooseMove(Board board);
+
+    /**
+     * Picks the first move the board allows, in the order of Direction.
+     * The searches play this once a tile grows past what a BitBoard holds.
+     *
+     * @param board board to move on
+     * @return first possible direction, or null if no move is possible
+     */
+    static Direction firstMove(Board board) {
+        for (Direction direction : Direction.values()) {
+            if (board.canMove(direction)) {
+                return direction;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,406 @@
+package game2048.ai;
+
+/**
+ * This class runs the same expectimax search as Expectimax, but splits it
+ * over a ForkJoinPool. Every move of the root board is its own task, and so
+ * is every new tile of the chance nodes below them, down to a configurable
+ * number of chance levels. Below that, each task searches on its own. All
+ * tasks share one ConcurrentTranspositionTable, keyed the same way as the
+ * table of Expectimax (see Expectimax.tableKey).
+ *
+ * Both searches score the same tree, but a stored value depends on how
+ * likely the path was that first reached it, since unlikely branches are
+ * cut short. The threads fill the table in a different order than a single
+ * search does, so the values can differ slightly, and now and then so can
+ * a move between two nearly equal ones.
+ */
+
+import game2048.BitBoard;
+import game2048.Board;
+import game2048.Direction;
+import game2048.GameConstants;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author David
+ */
+public class ParallelExpectimax {
+
+    // Default number of chance levels that are split into tasks
+    public static final int DEFAULT_SPLIT_LEVELS = 1;
+
+    // Chance branches less likely than this are scored right away
+    private static final double MIN_PROBABILITY = 0.0001;
+
+    // How often the clock is checked, in nodes
+    private static final int CLOCK_INTERVAL = 1 << 10;
+
+    // Chance of a new tile being a 2 or a 4
+    private static final double TWO_CHANCE =
+            GameConstants.TWO_PROBABILITY / 100.0;
+    private static final double FOUR_CHANCE = 1 - TWO_CHANCE;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Maximum search depth, and how many chance levels are split up
+    private final int depth;
+    private final int splitLevels;
+
+    // Threads to search with
+    private final ForkJoinPool pool;
+
+    // Positions searched so far, shared by all threads
+    private final ConcurrentTranspositionTable table;
+
+    // Statistics of the last bestMove call
+    private final LongAdder nodes = new LongAdder();
+    private long elapsedNanos;
+    private int finishedDepth;
+
+    // Deadline of the running search, and whether it has passed
+    private volatile long deadline;
+    private volatile boolean outOfTime;
+
+    /**
+     * Creates a search on the common pool with the default settings.
+     */
+    public ParallelExpectimax() {
+        this(Expectimax.DEFAULT_DEPTH, Expectimax.DEFAULT_TABLE_BITS,
+                DEFAULT_SPLIT_LEVELS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a search.
+     *
+     * @param depth maximum search depth, in player moves
+     * @param tableBits log2 of the transposition table size
+     * @param splitLevels chance levels below the root that are split into
+     *                    tasks, 0 only splits the root moves
+     * @param pool threads to search with
+     */
+    public ParallelExpectimax(int depth, int tableBits, int splitLevels,
+            ForkJoinPool pool) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Bad search depth: " + depth);
+        }
+        this.depth = depth;
+        this.splitLevels = splitLevels;
+        this.pool = pool;
+        table = new ConcurrentTranspositionTable(tableBits);
+    }
+
+    /**
+     * Picks the best move for a 4x4 board.
+     *
+     * @param board board to move on
+     * @param budgetMillis time the search may take, in milliseconds. The
+     *                     first search depth is always finished.
+     * @return best direction, or null if no move is possible. Once a tile
+     *         is larger than 2^15 the board can't be packed, and the first
+     *         possible move is played instead.
+     */
+    public Direction bestMove(Board board, long budgetMillis) {
+        if (!BitBoard.canPack(board.getCells())) {
+            return MoveStrategy.firstMove(board);
+        }
+        return bestMove(BitBoard.fromCells(board.getCells()), budgetMillis);
+    }
+
+    /**
+     * Picks the best move for a packed board.
+     *
+     * @param board packed tiles
+     * @param budgetMillis time the search may take, in milliseconds
+     * @return best direction, or null if no move is possible
+     */
+    public Direction bestMove(long board, long budgetMillis) {
+        long start = System.nanoTime();
+        long budget = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        deadline = start + budget < start ? Long.MAX_VALUE : start + budget;
+        outOfTime = false;
+        nodes.reset();
+        finishedDepth = 0;
+        table.nextGeneration();
+
+        Direction best = null;
+        for (int searchDepth = 1; searchDepth <= depth; searchDepth++) {
+            Direction found = searchRoot(board, searchDepth);
+            if (outOfTime && searchDepth > 1) {
+                break;
+            }
+            best = found;
+            finishedDepth = searchDepth;
+            if (best == null || System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Searches every move of the root board to a given depth, one task per
+     * move.
+     */
+    private Direction searchRoot(long board, int searchDepth) {
+        List<ChanceTask> tasks = new ArrayList<>(DIRECTIONS.length);
+        List<Direction> moves = new ArrayList<>(DIRECTIONS.length);
+        for (Direction direction : DIRECTIONS) {
+            long moved = BitBoard.move(board, direction);
+            if (moved != board) {
+                tasks.add(new ChanceTask(moved, searchDepth - 1, 1,
+                        splitLevels));
+                moves.add(direction);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return null;
+        }
+        pool.invoke(new RootTask(tasks));
+
+        Direction best = null;
+        double bestValue = -1;
+        for (int move = 0; move < tasks.size(); move++) {
+            if (tasks.get(move).value > bestValue) {
+                bestValue = tasks.get(move).value;
+                best = moves.get(move);
+            }
+        }
+        return best;
+    }
+
+    // Return the number of nodes searched by the last bestMove call
+    public long getNodeCount() {
+        return nodes.sum();
+    }
+
+    // Return the search speed of the last bestMove call
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes.sum() * 1e9 / elapsedNanos;
+    }
+
+    // Return the time taken by the last bestMove call, in nanoseconds
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Return the deepest search the last bestMove call finished
+    public int getFinishedDepth() {
+        return finishedDepth;
+    }
+
+    // Return the maximum search depth
+    public int getDepth() {
+        return depth;
+    }
+
+    // Return the threads this search runs on
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Runs all root moves at once.
+     */
+    private static final class RootTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ChanceTask> tasks;
+
+        RootTask(List<ChanceTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * A node of the search tree. Nodes that are split up fork a task per
+     * child, the others search their whole subtree on the calling thread.
+     */
+    private abstract class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final long board;
+        final int remaining;
+        final double probability;
+        final int split;
+
+        // Value of the node once the task is done
+        double value;
+
+        // Nodes searched by this task alone, added up when it is done
+        long searched;
+
+        SearchTask(long board, int remaining, double probability, int split) {
+            this.board = board;
+            this.remaining = remaining;
+            this.probability = probability;
+            this.split = split;
+        }
+
+        /**
+         * Value of the player to move, the best of all moves.
+         */
+        double maxNode(long node, int left, double chance) {
+            if (left == 0 || chance < MIN_PROBABILITY) {
+                return Heuristic.evaluate(node);
+            }
+            long key = Expectimax.tableKey(node, left);
+            float stored = table.get(key, left);
+            if (!Float.isNaN(stored)) {
+                return stored;
+            }
+            if ((++searched & (CLOCK_INTERVAL - 1)) == 0
+                    && System.nanoTime() >= deadline) {
+                outOfTime = true;
+            }
+
+            double best = 0;
+            for (Direction direction : DIRECTIONS) {
+                long moved = BitBoard.move(node, direction);
+                if (moved != node) {
+                    best = Math.max(best,
+                            chanceNode(moved, left - 1, chance));
+                }
+            }
+
+            // A search cut short by the clock is not worth keeping
+            if (!outOfTime) {
+                table.put(key, left, (float) best);
+            }
+            return best;
+        }
+
+        /**
+         * Value of the board after a move, the average over every new tile.
+         */
+        double chanceNode(long node, int left, double chance) {
+            searched++;
+            long free = BitBoard.emptyMask(node);
+            int empty = Long.bitCount(free);
+            if (empty == 0 || outOfTime) {
+                return Heuristic.evaluate(node);
+            }
+            double twoChance = chance * TWO_CHANCE / empty;
+            double fourChance = chance * FOUR_CHANCE / empty;
+
+            // Walk the empty tiles only, lowest first
+            double total = 0;
+            for (; free != 0; free &= free - 1) {
+                long two = Long.lowestOneBit(free);
+                long four = two << 1;
+                total += TWO_CHANCE * maxNode(node | two, left, twoChance)
+                        + FOUR_CHANCE * maxNode(node | four, left,
+                                fourChance);
+            }
+            return total / empty;
+        }
+
+        void finish(double result) {
+            value = result;
+            nodes.add(searched);
+        }
+    }
+
+    /**
+     * The random tile after a move, split into a task per new tile.
+     */
+    private final class ChanceTask extends SearchTask {
+
+        private static final long serialVersionUID = 1L;
+
+        ChanceTask(long board, int remaining, double probability, int split) {
+            super(board, remaining, probability, split);
+        }
+
+        @Override
+        protected void compute() {
+            long free = BitBoard.emptyMask(board);
+            int empty = Long.bitCount(free);
+            if (split <= 0 || remaining == 0 || empty == 0) {
+                finish(chanceNode(board, remaining, probability));
+                return;
+            }
+            searched++;
+            double twoChance = probability * TWO_CHANCE / empty;
+            double fourChance = probability * FOUR_CHANCE / empty;
+
+            List<MaxTask> children = new ArrayList<>(empty * 2);
+            for (; free != 0; free &= free - 1) {
+                long two = Long.lowestOneBit(free);
+                children.add(new MaxTask(board | two, remaining, twoChance,
+                        split - 1));
+                children.add(new MaxTask(board | two << 1, remaining,
+                        fourChance, split - 1));
+            }
+            invokeAll(children);
+
+            double total = 0;
+            for (int child = 0; child < children.size(); child += 2) {
+                total += TWO_CHANCE * children.get(child).value
+                        + FOUR_CHANCE * children.get(child + 1).value;
+            }
+            finish(total / empty);
+        }
+    }
+
+    /**
+     * The player's move, split into a task per move while there are chance
+     * levels left to split.
+     */
+    private final class MaxTask extends SearchTask {
+
+        private static final long serialVersionUID = 1L;
+
+        MaxTask(long board, int remaining, double probability, int split) {
+            super(board, remaining, probability, split);
+        }
+
+        @Override
+        protected void compute() {
+            if (split <= 0 || remaining == 0
+                    || probability < MIN_PROBABILITY) {
+                finish(maxNode(board, remaining, probability));
+                return;
+            }
+            long key = Expectimax.tableKey(board, remaining);
+            float stored = table.get(key, remaining);
+            if (!Float.isNaN(stored)) {
+                finish(stored);
+                return;
+            }
+            searched++;
+
+            List<ChanceTask> children = new ArrayList<>(DIRECTIONS.length);
+            for (Direction direction : DIRECTIONS) {
+                long moved = BitBoard.move(board, direction);
+                if (moved != board) {
+                    children.add(new ChanceTask(moved, remaining - 1,
+                            probability, split));
+                }
+            }
+            invokeAll(children);
+
+            double best = 0;
+            for (ChanceTask child : children) {
+                best = Math.max(best, child.value);
+            }
+            if (!outOfTime) {
+                table.put(key, remaining, (float) best);
+            }
+            finish(best);
+        }
+    }
+}
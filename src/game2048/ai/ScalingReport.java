@@ -0,0 +1,152 @@
+package game2048.ai;
+
+/**
+ * This program measures how ParallelExpectimax scales with the number of
+ * threads. It collects a fixed set of positions from seeded games, then
+ * searches all of them once per thread count and prints moves/sec and
+ * nodes/sec next to the speedup over one thread. Thread counts above the
+ * number of cores are marked, since their speedup says nothing about how
+ * the search scales.
+ *
+ * Usage: java game2048.ai.ScalingReport [depth] [positions] [maxThreads]
+ */
+
+import game2048.BitBoard;
+import game2048.Direction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ *
+ * @author David
+ */
+public class ScalingReport {
+
+    // Report defaults
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int DEFAULT_POSITIONS = 200;
+
+    // Passes over the positions before anything is measured
+    private static final int WARMUP_PASSES = 3;
+
+    // No time limit, every search runs to its full depth
+    private static final long NO_BUDGET = Long.MAX_VALUE;
+
+    /**
+     * Runs the report.
+     *
+     * @param args depth, number of positions and most threads to try
+     */
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_DEPTH;
+        int count = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_POSITIONS;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        if (depth < 1 || count < 1 || maxThreads < 1) {
+            throw new IllegalArgumentException("Bad depth, positions or"
+                    + " threads");
+        }
+
+        long[] positions = collectPositions(count);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("depth %d, %d positions, %d cores%n", depth,
+                count, cores);
+        System.out.printf("%8s %12s %14s %8s%n",
+                "threads", "moves/sec", "nodes/sec", "speedup");
+
+        // Warm up the JIT on the biggest pool first, so the one thread
+        // baseline isn't measured on code that is still being compiled
+        ForkJoinPool warmup = new ForkJoinPool(maxThreads);
+        try {
+            for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+                search(new ParallelExpectimax(depth, 20,
+                        ParallelExpectimax.DEFAULT_SPLIT_LEVELS, warmup),
+                        positions);
+            }
+        } finally {
+            warmup.shutdown();
+        }
+
+        double baseline = 0;
+        for (int threads : threadCounts(maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // Warm up the JIT, then measure with a fresh table
+                search(new ParallelExpectimax(depth, 20,
+                        ParallelExpectimax.DEFAULT_SPLIT_LEVELS, pool),
+                        positions);
+                ParallelExpectimax search = new ParallelExpectimax(depth,
+                        20, ParallelExpectimax.DEFAULT_SPLIT_LEVELS, pool);
+                long[] totals = search(search, positions);
+
+                double seconds = totals[1] / 1e9;
+                double movesPerSecond = positions.length / seconds;
+                if (threads == 1) {
+                    baseline = movesPerSecond;
+                }
+                System.out.printf("%8d %12.1f %14.0f %7.2fx%s%n", threads,
+                        movesPerSecond, totals[0] / seconds,
+                        movesPerSecond / baseline,
+                        threads > cores ? "  (more threads than cores)"
+                                : "");
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Lists the thread counts to measure: the powers of two below the
+     * most threads, then the most threads itself.
+     */
+    private static List<Integer> threadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    /**
+     * Searches every position once.
+     *
+     * @return total nodes and total nanoseconds
+     */
+    private static long[] search(ParallelExpectimax search,
+            long[] positions) {
+        long[] totals = new long[2];
+        for (long position : positions) {
+            search.bestMove(position, NO_BUDGET);
+            totals[0] += search.getNodeCount();
+            totals[1] += search.getElapsedNanos();
+        }
+        return totals;
+    }
+
+    /**
+     * Plays seeded games with a shallow search and keeps every position
+     * seen on the way, so the report always measures the same boards.
+     */
+    private static long[] collectPositions(int count) {
+        long[] positions = new long[count];
+        Expectimax player = new Expectimax(2, 16);
+        Random random = new Random(2048);
+        BitBoard board = new BitBoard(random);
+        for (int index = 0; index < count; index++) {
+            if (board.isGameOver()) {
+                board = new BitBoard(random);
+            }
+            positions[index] = board.getBoard();
+            Direction move = player.bestMove(board.getBoard(), NO_BUDGET);
+            board.move(move);
+            board.addRandomTile();
+        }
+        return positions;
+    }
+}
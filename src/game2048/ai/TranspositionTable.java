@@ -0,0 +1,103 @@
+package game2048.ai;
+
+/**
+ * This class caches the value of already searched 4x4 positions. It has a
+ * fixed number of slots, picked by a hash of the packed board, and every
+ * slot holds the board itself as its key. When two boards land on the same
+ * slot, the deeper search is kept, unless the stored one is left over from
+ * an earlier search.
+ */
+
+/**
+ *
+ * @author David
+ */
+public class TranspositionTable {
+
+    // Slots are picked with the top bits of the hash
+    private final int shift;
+
+    // Packed boards, their values, search depths and search generations
+    private final long[] keys;
+    private final float[] values;
+    private final byte[] depths;
+    private final byte[] generations;
+
+    // Generation of the current search
+    private byte generation = 1;
+
+    /**
+     * Creates a table with 2^bits slots.
+     *
+     * @param bits log2 of the number of slots
+     */
+    public TranspositionTable(int bits) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("Bad table size: " + bits);
+        }
+        int slots = 1 << bits;
+        shift = 64 - bits;
+        keys = new long[slots];
+        values = new float[slots];
+        depths = new byte[slots];
+        generations = new byte[slots];
+    }
+
+    /**
+     * Mixes the packed board into a well spread hash.
+     *
+     * @param board packed tiles
+     * @return hash of the board
+     */
+    public static long hash(long board) {
+        long mixed = (board ^ (board >>> 31)) * 0x9E3779B97F4A7C15L;
+        return mixed ^ (mixed >>> 29);
+    }
+
+    /**
+     * Looks up a board that was searched at least as deep as asked for.
+     *
+     * @param board packed tiles
+     * @param depth search depth that is needed
+     * @return the stored value, or NaN if there is none
+     */
+    public float get(long board, int depth) {
+        int slot = (int) (hash(board) >>> shift);
+        if (keys[slot] == board && depths[slot] >= depth) {
+            return values[slot];
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Stores the value of a searched board.
+     *
+     * @param board packed tiles
+     * @param depth how deep the board was searched, at least 1
+     * @param value value of the board
+     */
+    public void put(long board, int depth, float value) {
+        int slot = (int) (hash(board) >>> shift);
+
+        // Keep deeper results, but don't let old searches hog the slot
+        if (depths[slot] <= depth || generations[slot] != generation) {
+            keys[slot] = board;
+            values[slot] = value;
+            depths[slot] = (byte) depth;
+            generations[slot] = generation;
+        }
+    }
+
+    /**
+     * Starts a new search. Stored boards stay usable, but can now be
+     * replaced by shallower results.
+     */
+    public void nextGeneration() {
+        generation = (byte) (generation == Byte.MAX_VALUE ? 1 : generation + 1);
+    }
+
+    // Return the number of slots
+    public int size() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,132 @@
+package game2048.io;
+
+/**
+ * Sample binary .board file
+ * <p/>
+ *   header  (8 bytes)  magic "2048", version, board size, bits per tile
+ *   record  score (8 bytes), checksum (4 bytes), packed tiles
+ *   record  ...
+ * <p/>
+ *
+ * This class describes the binary board format. A file holds any number of
+ * boards of the same size, one fixed size record after the other, so the
+ * n'th board can be found without reading the ones before it. All numbers
+ * are little endian.
+ *
+ * Tiles are stored as log2 exponents (0 is an empty tile), row first,
+ * column second, either 4 bits per tile (lowest nibble first, tiles up to
+ * 2^15) or 8 bits per tile. With 4 bits, the tiles of a 4x4 board read as
+ * one long are exactly the packed BitBoard. The checksum is a CRC32 of the
+ * score and the tile bytes.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * @author David
+ */
+public final class BoardFile {
+
+    // "2048" read as a little endian int
+    public static final int MAGIC = 0x38343032;
+
+    // Current version of the format
+    public static final short VERSION = 1;
+
+    // Size of the file header
+    public static final int HEADER_SIZE = 8;
+
+    // Size of a record before its tiles: score and checksum
+    public static final int RECORD_HEADER_SIZE = 12;
+
+    private BoardFile() {
+    }
+
+    /**
+     * Returns the size of one record.
+     *
+     * @param size board size
+     * @param bitsPerTile 4 or 8
+     * @return bytes per record
+     */
+    public static int recordSize(int size, int bitsPerTile) {
+        return RECORD_HEADER_SIZE + tileBytes(size, bitsPerTile);
+    }
+
+    /**
+     * Returns the number of bytes the tiles of one board take.
+     *
+     * @param size board size
+     * @param bitsPerTile 4 or 8
+     * @return bytes of packed tiles
+     */
+    public static int tileBytes(int size, int bitsPerTile) {
+        return (size * size * bitsPerTile + 7) / 8;
+    }
+
+    /**
+     * Checks whether a file starts with the binary board header.
+     *
+     * @param file file to check
+     * @return true if the file is a binary board file
+     */
+    public static boolean isBoardFile(Path file) {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is full or the file ends
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks a file header and returns its board size and bits per tile.
+     *
+     * @param header the first HEADER_SIZE bytes of the file
+     * @return board size in the low byte, bits per tile in the next one
+     * @throws IOException if the header is not a supported one
+     */
+    static int readHeader(ByteBuffer header) throws IOException {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary board file");
+        }
+        if (header.getShort(4) != VERSION) {
+            throw new IOException("Unsupported board file version "
+                    + header.getShort(4));
+        }
+        int size = header.get(6) & 0xFF;
+        int bitsPerTile = header.get(7) & 0xFF;
+        if (size < 2 || (bitsPerTile != 4 && bitsPerTile != 8)) {
+            throw new IOException("Bad board file header: size " + size
+                    + ", " + bitsPerTile + " bits per tile");
+        }
+        return size | bitsPerTile << 8;
+    }
+
+    /**
+     * Writes a file header.
+     *
+     * @param header buffer to write to, at its position
+     * @param size board size
+     * @param bitsPerTile 4 or 8
+     */
+    static void writeHeader(ByteBuffer header, int size, int bitsPerTile) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put((byte) size);
+        header.put((byte) bitsPerTile);
+    }
+}
@@ -0,0 +1,225 @@
+package game2048.io;
+
+/**
+ * This class reads a binary board file, see BoardFile. The file is memory
+ * mapped in large segments, and the reader is a cursor over its records:
+ * next() or seek() moves to a board, and the getters read its score and
+ * tiles straight from the mapped memory, so even files with millions of
+ * boards are walked without copying them into objects.
+ */
+
+import game2048.Board;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author David
+ */
+public class BoardFileReader implements Closeable {
+
+    // Largest part of the file that is mapped at once
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+
+    // Layout of every record
+    private final int size;
+    private final int bitsPerTile;
+    private final int tileBytes;
+    private final int recordSize;
+
+    // Number of whole records in the file
+    private final long count;
+
+    // Records per mapped segment
+    private final long segmentRecords;
+
+    // The mapped segment holding the current record, and its number
+    private MappedByteBuffer segment;
+    private long segmentNumber = -1;
+
+    // Index of the current record, and where it starts in the segment
+    private long current = -1;
+    private int offset;
+
+    /**
+     * Opens a binary board file.
+     *
+     * @param file file to read
+     * @throws IOException if the file can't be read or isn't a board file
+     */
+    public BoardFileReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(BoardFile.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is full or the file ends
+            }
+            if (header.hasRemaining()) {
+                throw new IOException("Board file is too short");
+            }
+            int layout = BoardFile.readHeader(header);
+            size = layout & 0xFF;
+            bitsPerTile = layout >>> 8;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        tileBytes = BoardFile.tileBytes(size, bitsPerTile);
+        recordSize = BoardFile.recordSize(size, bitsPerTile);
+        count = (channel.size() - BoardFile.HEADER_SIZE) / recordSize;
+        segmentRecords = SEGMENT_SIZE / recordSize;
+    }
+
+    /**
+     * Moves to the next board.
+     *
+     * @return false if there are no more boards
+     * @throws IOException if the file can't be mapped
+     */
+    public boolean next() throws IOException {
+        if (current + 1 >= count) {
+            current = count;
+            return false;
+        }
+        seek(current + 1);
+        return true;
+    }
+
+    /**
+     * Moves to any board of the file.
+     *
+     * @param index number of the board, 0 based
+     * @throws IOException if the file can't be mapped
+     */
+    public void seek(long index) throws IOException {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Board " + index + " of "
+                    + count);
+        }
+        long number = index / segmentRecords;
+        if (number != segmentNumber) {
+            long first = number * segmentRecords;
+            long records = Math.min(segmentRecords, count - first);
+            segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    BoardFile.HEADER_SIZE + first * recordSize,
+                    records * recordSize);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segmentNumber = number;
+        }
+        current = index;
+        offset = (int) (index - number * segmentRecords) * recordSize;
+    }
+
+    // Return the score of the current board
+    public long getScore() {
+        return segment.getLong(offset);
+    }
+
+    /**
+     * Returns the exponent of a tile of the current board.
+     *
+     * @param row row of the grid
+     * @param column column of the grid
+     * @return log2 of the tile, 0 if empty
+     */
+    public int getExponent(int row, int column) {
+        int index = row * size + column;
+        int tiles = offset + BoardFile.RECORD_HEADER_SIZE;
+        if (bitsPerTile == 8) {
+            return segment.get(tiles + index) & 0xFF;
+        }
+        return (segment.get(tiles + (index >>> 1)) >>> ((index & 1) * 4))
+                & 0xF;
+    }
+
+    /**
+     * Returns the value of a tile of the current board.
+     *
+     * @param row row of the grid
+     * @param column column of the grid
+     * @return the tile, 0 if empty
+     */
+    public long getTile(int row, int column) {
+        return Board.valueOf(getExponent(row, column));
+    }
+
+    /**
+     * Returns the current board as a packed BitBoard. Only for 4x4 files
+     * with 4 bits per tile.
+     *
+     * @return packed tiles
+     */
+    public long getPacked() {
+        if (size != 4 || bitsPerTile != 4) {
+            throw new IllegalStateException(
+                    "Packed boards need a 4x4 file with 4 bits per tile");
+        }
+        return segment.getLong(offset + BoardFile.RECORD_HEADER_SIZE);
+    }
+
+    /**
+     * Checks the current board against its checksum.
+     *
+     * @return true if the board is intact
+     */
+    public boolean isValid() {
+        checksum.reset();
+        long score = getScore();
+        for (int shift = 0; shift < 64; shift += 8) {
+            checksum.update((int) (score >>> shift));
+        }
+        int tiles = offset + BoardFile.RECORD_HEADER_SIZE;
+        for (int index = 0; index < tileBytes; index++) {
+            checksum.update(segment.get(tiles + index));
+        }
+        return (int) checksum.getValue() == segment.getInt(offset + 8);
+    }
+
+    /**
+     * Copies the current board into a new Board.
+     *
+     * @param random random number generator of the new board
+     * @return the board
+     */
+    public Board toBoard(Random random) {
+        byte[] cells = new byte[size * size];
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                cells[row * size + column] = (byte) getExponent(row, column);
+            }
+        }
+        return new Board(size, cells, getScore(), random);
+    }
+
+    // Return the size of the boards in the file
+    public int getSize() {
+        return size;
+    }
+
+    // Return the number of boards in the file
+    public long getCount() {
+        return count;
+    }
+
+    // Return the index of the current board
+    public long getIndex() {
+        return current;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.close();
+    }
+}
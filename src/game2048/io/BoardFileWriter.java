@@ -0,0 +1,164 @@
+package game2048.io;
+
+/**
+ * This class writes boards to a binary board file, see BoardFile. Records
+ * are collected in a buffer and written to the file channel in large
+ * blocks.
+ */
+
+import game2048.Board;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * @author David
+ */
+public class BoardFileWriter implements Closeable {
+
+    // Bytes collected before they are written out
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32 checksum = new CRC32();
+
+    // Layout of every record
+    private final int size;
+    private final int bitsPerTile;
+    private final int tileBytes;
+
+    // Tiles of the record being written
+    private final byte[] tiles;
+
+    // Number of boards written so far
+    private long count;
+
+    /**
+     * Creates a new file, or empties an existing one.
+     *
+     * @param file file to write
+     * @param size size of every board in the file
+     * @param bitsPerTile 4 (tiles up to 2^15) or 8
+     * @throws IOException if the file can't be created
+     */
+    public BoardFileWriter(Path file, int size, int bitsPerTile)
+            throws IOException {
+        if (size < 2 || size > 0xFF || (bitsPerTile != 4 && bitsPerTile != 8)) {
+            throw new IllegalArgumentException("Bad board file layout: size "
+                    + size + ", " + bitsPerTile + " bits per tile");
+        }
+        this.size = size;
+        this.bitsPerTile = bitsPerTile;
+        tileBytes = BoardFile.tileBytes(size, bitsPerTile);
+        tiles = new byte[tileBytes];
+        buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE,
+                BoardFile.recordSize(size, bitsPerTile)))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        BoardFile.writeHeader(buffer, size, bitsPerTile);
+    }
+
+    /**
+     * Appends a board.
+     *
+     * @param board board to write, of this file's size
+     * @throws IOException if the board can't be written
+     */
+    public void write(Board board) throws IOException {
+        if (board.GRID_SIZE != size) {
+            throw new IllegalArgumentException("Board of size "
+                    + board.GRID_SIZE + " in a file of size " + size);
+        }
+        byte[] cells = board.getCells();
+        Arrays.fill(tiles, (byte) 0);
+        for (int index = 0; index < cells.length; index++) {
+            int exponent = cells[index];
+            if (exponent >= 1 << bitsPerTile) {
+                throw new IOException("Tile 2^" + exponent
+                        + " doesn't fit in " + bitsPerTile + " bits");
+            }
+            if (bitsPerTile == 8) {
+                tiles[index] = (byte) exponent;
+            } else {
+                tiles[index >>> 1] |= exponent << ((index & 1) * 4);
+            }
+        }
+        writeRecord(board.getScore());
+    }
+
+    /**
+     * Appends a packed 4x4 BitBoard. Only for 4x4 files with 4 bits per
+     * tile.
+     *
+     * @param board packed tiles
+     * @param score score of the board
+     * @throws IOException if the board can't be written
+     */
+    public void write(long board, long score) throws IOException {
+        if (size != 4 || bitsPerTile != 4) {
+            throw new IllegalArgumentException(
+                    "Packed boards need a 4x4 file with 4 bits per tile");
+        }
+        for (int index = 0; index < tileBytes; index++) {
+            tiles[index] = (byte) (board >>> (index * 8));
+        }
+        writeRecord(score);
+    }
+
+    /**
+     * Puts the current tiles and a score into the buffer.
+     */
+    private void writeRecord(long score) throws IOException {
+        if (buffer.remaining() < BoardFile.RECORD_HEADER_SIZE + tileBytes) {
+            flush();
+        }
+        checksum.reset();
+        for (int shift = 0; shift < 64; shift += 8) {
+            checksum.update((int) (score >>> shift));
+        }
+        checksum.update(tiles, 0, tileBytes);
+
+        buffer.putLong(score);
+        buffer.putInt((int) checksum.getValue());
+        buffer.put(tiles, 0, tileBytes);
+        count++;
+    }
+
+    /**
+     * Writes all buffered records to the file.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Return the number of boards written so far
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package game2048.io;
+
+/**
+ * Sample replay log (.replay)
+ * <p/>
+ *   header  magic "RPLY", version, board size, seed, starting score,
+ *           starting tiles (1 byte each)
+ *   move    direction | spawned exponent &lt;&lt; 2 (1 byte), spawned tile (1 byte)
+ *   move    ...
+ * <p/>
+ * Sample index (.replay.idx)
+ * <p/>
+ *   header    magic "RIDX", version, board size, keyframe interval
+ *   keyframe  move number, log offset, score, tiles (1 byte each)
+ *   keyframe  ...
+ * <p/>
+ *
+ * This class describes the replay format. The log only ever grows: every
+ * successful move adds two bytes, the direction and the tile that was
+ * spawned after it (exponent 0 if the board was full). Replaying the log
+ * from the header rebuilds the game move by move.
+ *
+ * Every so many moves a keyframe with the whole board is added to the
+ * index, which lives in its own file so the log stays compact. Keyframes
+ * have a fixed size, so the one just before a move can be found with a
+ * binary search, and only the moves after it have to be replayed. Tiles
+ * are stored as log2 exponents, row first, column second. All numbers are
+ * little endian.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ *
+ * @author David
+ */
+public final class ReplayFile {
+
+    // "RPLY" and "RIDX" read as little endian ints
+    public static final int LOG_MAGIC = 0x594C5052;
+    public static final int INDEX_MAGIC = 0x58444952;
+
+    // Current version of the format
+    public static final short VERSION = 1;
+
+    // Size of the log header before the starting tiles
+    public static final int LOG_HEADER_SIZE = 24;
+
+    // Size of the index header
+    public static final int INDEX_HEADER_SIZE = 12;
+
+    // Size of a keyframe before its tiles: move, offset and score
+    public static final int KEYFRAME_HEADER_SIZE = 24;
+
+    // Size of one move in the log
+    public static final int MOVE_SIZE = 2;
+
+    // Bits of the first move byte that hold the direction
+    public static final int DIRECTION_MASK = 0x3;
+
+    // Largest board whose tiles can be numbered in one byte
+    public static final int MAX_SIZE = 16;
+
+    // Default moves between two keyframes
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+
+    private ReplayFile() {
+    }
+
+    /**
+     * Returns the index file that belongs to a log.
+     *
+     * @param log replay log
+     * @return index next to the log
+     */
+    public static Path indexOf(Path log) {
+        Path name = log.getFileName();
+        Path index = Paths.get(name + ".idx");
+        return log.getParent() == null ? index
+                : log.getParent().resolve(index);
+    }
+
+    /**
+     * Returns the size of the log header.
+     *
+     * @param size board size
+     * @return bytes before the first move
+     */
+    public static int logHeaderSize(int size) {
+        return LOG_HEADER_SIZE + size * size;
+    }
+
+    /**
+     * Returns the size of one keyframe.
+     *
+     * @param size board size
+     * @return bytes per keyframe
+     */
+    public static int keyframeSize(int size) {
+        return KEYFRAME_HEADER_SIZE + size * size;
+    }
+
+    /**
+     * Reads the magic and version of a header and checks them.
+     *
+     * @param buffer little endian buffer positioned at the header
+     * @param magic magic the file should start with
+     * @param file file name for the error message
+     * @return board size of the file
+     * @throws IOException if the file is not a replay file
+     */
+    static int readHeader(ByteBuffer buffer, int magic, Path file)
+            throws IOException {
+        if (buffer.remaining() < INDEX_HEADER_SIZE
+                || buffer.getInt() != magic) {
+            throw new IOException(file + " is not a replay file");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version "
+                    + version);
+        }
+        int size = buffer.get() & 0xFF;
+        buffer.get();
+        if (size < 2 || size > MAX_SIZE) {
+            throw new IOException(file + " has bad board size " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Writes the magic, version and size that start every header.
+     */
+    static void writeHeader(ByteBuffer buffer, int magic, int size) {
+        buffer.putInt(magic);
+        buffer.putShort(VERSION);
+        buffer.put((byte) size);
+        buffer.put((byte) 0);
+    }
+}
@@ -0,0 +1,245 @@
+package game2048.io;
+
+/**
+ * This class rebuilds the boards of a recorded game, see ReplayFile. The
+ * keyframes of the index are loaded when the log is opened; a board is
+ * rebuilt from the last keyframe at or before the wanted move, and only the
+ * moves after that keyframe are read and replayed.
+ *
+ * A missing or broken index only makes seeking slower: the header of the
+ * log always works as the keyframe of move 0.
+ */
+
+import game2048.Board;
+import game2048.Direction;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * @author David
+ */
+public class ReplayReader implements Closeable {
+
+    // Moves read from the log at once
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Path file;
+    private final FileChannel log;
+    private final ByteBuffer buffer;
+
+    // Layout and header of the game
+    private final int size;
+    private final long seed;
+
+    // Keyframes, the first one being the header of the log
+    private final long[] keyMoves;
+    private final long[] keyOffsets;
+    private final long[] keyScores;
+    private final byte[][] keyTiles;
+
+    // Number of keyframes that passed the checks
+    private final int keyframeCount;
+
+    // Number of complete moves in the log
+    private final long moveCount;
+
+    /**
+     * Opens a log and loads its index, if there is one.
+     *
+     * @param file log to read
+     * @throws IOException if the log can't be read or is not a replay
+     */
+    public ReplayReader(Path file) throws IOException {
+        this.file = file;
+        log = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(
+                    ReplayFile.LOG_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            size = ReplayFile.readHeader(header, ReplayFile.LOG_MAGIC, file);
+            seed = header.getLong();
+            long startScore = header.getLong();
+            byte[] startTiles = new byte[size * size];
+            ByteBuffer tiles = ByteBuffer.wrap(startTiles);
+            readFully(tiles, ReplayFile.LOG_HEADER_SIZE);
+
+            long start = ReplayFile.logHeaderSize(size);
+            moveCount = (log.size() - start) / ReplayFile.MOVE_SIZE;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE * ReplayFile.MOVE_SIZE);
+
+            // Load the keyframes, dropping any past the end of the log
+            ByteBuffer index = readIndex();
+            int count = 1 + index.remaining() / ReplayFile.keyframeSize(size);
+            keyMoves = new long[count];
+            keyOffsets = new long[count];
+            keyScores = new long[count];
+            keyTiles = new byte[count][];
+            keyOffsets[0] = start;
+            keyScores[0] = startScore;
+            keyTiles[0] = startTiles;
+            int loaded = 1;
+            while (loaded < count) {
+                long move = index.getLong();
+                long offset = index.getLong();
+                long score = index.getLong();
+                byte[] frame = new byte[size * size];
+                index.get(frame);
+                if (move <= keyMoves[loaded - 1] || move > moveCount
+                        || offset != start + move * ReplayFile.MOVE_SIZE) {
+                    break;
+                }
+                keyMoves[loaded] = move;
+                keyOffsets[loaded] = offset;
+                keyScores[loaded] = score;
+                keyTiles[loaded++] = frame;
+            }
+            keyframeCount = loaded;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuilds the board after a number of moves.
+     *
+     * @param move number of moves to replay, 0 for the starting board
+     * @param random random number generator of the new board
+     * @return board as it was after that move and its spawned tile
+     * @throws IOException if the log can't be read or doesn't replay
+     */
+    public Board boardAt(long move, Random random) throws IOException {
+        if (move < 0 || move > moveCount) {
+            throw new IllegalArgumentException("Move " + move
+                    + " is not in 0.." + moveCount);
+        }
+
+        // Last keyframe at or before the move
+        int key = Arrays.binarySearch(keyMoves, 0, keyframeCount, move);
+        if (key < 0) {
+            key = -key - 2;
+        }
+
+        Board board = new Board(size, keyTiles[key], keyScores[key], random);
+
+        long position = keyOffsets[key];
+        for (long replayed = keyMoves[key]; replayed < move;) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(),
+                    (move - replayed) * ReplayFile.MOVE_SIZE));
+            readFully(buffer, position);
+            position += buffer.limit();
+            while (buffer.hasRemaining()) {
+                apply(board, buffer.get(), buffer.get(), replayed++);
+            }
+        }
+        board.clearTileEvents();
+        return board;
+    }
+
+    /**
+     * Replays a single move onto a board.
+     */
+    private void apply(Board board, byte first, byte second, long number)
+            throws IOException {
+        Direction direction = DIRECTIONS[first & ReplayFile.DIRECTION_MASK];
+        if (!board.move(direction)) {
+            throw new IOException(file + ": move " + (number + 1) + " ("
+                    + direction + ") doesn't move anything");
+        }
+        int exponent = (first & 0xFF) >>> 2;
+        if (exponent != 0) {
+            int spawn = second & 0xFF;
+            board.placeTile(spawn / size, spawn % size, 1 << exponent);
+        }
+    }
+
+    /**
+     * Returns the direction of a move, counting from 1.
+     *
+     * @param move move number
+     * @return direction of that move
+     * @throws IOException if the log can't be read
+     */
+    public Direction getDirection(long move) throws IOException {
+        if (move < 1 || move > moveCount) {
+            throw new IllegalArgumentException("Move " + move
+                    + " is not in 1.." + moveCount);
+        }
+        ByteBuffer single = ByteBuffer.allocate(1);
+        readFully(single, keyOffsets[0] + (move - 1) * ReplayFile.MOVE_SIZE);
+        return DIRECTIONS[single.get(0) & ReplayFile.DIRECTION_MASK];
+    }
+
+    /**
+     * Reads the whole index, or returns an empty buffer if it is missing
+     * or doesn't belong to this log.
+     */
+    private ByteBuffer readIndex() throws IOException {
+        Path path = ReplayFile.indexOf(file);
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        if (!Files.isRegularFile(path)) {
+            return empty;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(path))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (ReplayFile.readHeader(index, ReplayFile.INDEX_MAGIC, path)
+                    != size) {
+                return empty;
+            }
+        } catch (IOException e) {
+            return empty;
+        }
+        index.getInt();
+        return index;
+    }
+
+    private void readFully(ByteBuffer target, long position)
+            throws IOException {
+        while (target.hasRemaining()) {
+            int read = log.read(target, position);
+            if (read < 0) {
+                throw new IOException(file + " ends too soon");
+            }
+            position += read;
+        }
+        target.flip();
+    }
+
+    // Return the board size
+    public int getSize() {
+        return size;
+    }
+
+    // Return the seed the game was recorded with
+    public long getSeed() {
+        return seed;
+    }
+
+    // Return the number of moves in the log
+    public long getMoveCount() {
+        return moveCount;
+    }
+
+    // Return the number of usable keyframes, including the starting board
+    public int getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+}
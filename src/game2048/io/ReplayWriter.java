@@ -0,0 +1,263 @@
+package game2048.io;
+
+/**
+ * This class records a game into a replay log, see ReplayFile. Recording a
+ * move only encodes two bytes (and now and then a keyframe) into a buffer,
+ * so it is cheap enough to call on the thread that handles the input. A
+ * background thread writes the buffers to the log and the index every so
+ * often, and close() writes whatever is left.
+ *
+ * An error of the background thread is kept and thrown by the next call
+ * to record(), flush() or close().
+ */
+
+import game2048.Board;
+import game2048.Direction;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author David
+ */
+public class ReplayWriter implements Closeable {
+
+    // Milliseconds between two background flushes
+    private static final long FLUSH_INTERVAL = 250;
+
+    // Starting size of the buffers, they grow when needed
+    private static final int BUFFER_SIZE = 1 << 12;
+
+    private final FileChannel log;
+    private final FileChannel index;
+    private final ScheduledExecutorService flusher;
+
+    // Layout of the game
+    private final int size;
+    private final int keyframeInterval;
+
+    // Bytes recorded but not written yet, guarded by this
+    private ByteBuffer pendingLog;
+    private ByteBuffer pendingIndex;
+
+    // Buffers being written, only used while holding writeLock
+    private ByteBuffer writingLog;
+    private ByteBuffer writingIndex;
+    private final Object writeLock = new Object();
+
+    // Moves recorded so far, and the log offset of the next one
+    private long moveCount;
+    private long offset;
+
+    // First error of the background thread
+    private volatile IOException failure;
+
+    /**
+     * Creates a new log (and its index) starting from a board, or empties
+     * existing ones.
+     *
+     * @param file log to write
+     * @param seed seed of the game, kept for reference
+     * @param initial board before the first move
+     * @throws IOException if the files can't be created
+     */
+    public ReplayWriter(Path file, long seed, Board initial)
+            throws IOException {
+        this(file, seed, initial, ReplayFile.DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Creates a new log (and its index) starting from a board, or empties
+     * existing ones.
+     *
+     * @param file log to write
+     * @param seed seed of the game, kept for reference
+     * @param initial board before the first move
+     * @param keyframeInterval moves between two keyframes
+     * @throws IOException if the files can't be created
+     */
+    public ReplayWriter(Path file, long seed, Board initial,
+            int keyframeInterval) throws IOException {
+        size = initial.GRID_SIZE;
+        if (size > ReplayFile.MAX_SIZE || keyframeInterval < 1) {
+            throw new IllegalArgumentException("Can't record size " + size
+                    + " with keyframes every " + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
+        pendingLog = newBuffer(BUFFER_SIZE);
+        pendingIndex = newBuffer(BUFFER_SIZE);
+        writingLog = newBuffer(BUFFER_SIZE);
+        writingIndex = newBuffer(BUFFER_SIZE);
+
+        ReplayFile.writeHeader(pendingLog, ReplayFile.LOG_MAGIC, size);
+        pendingLog.putLong(seed);
+        pendingLog.putLong(initial.getScore());
+        putTiles(pendingLog, initial);
+        offset = ReplayFile.logHeaderSize(size);
+
+        ReplayFile.writeHeader(pendingIndex, ReplayFile.INDEX_MAGIC, size);
+        pendingIndex.putInt(keyframeInterval);
+
+        log = open(file);
+        try {
+            index = open(ReplayFile.indexOf(file));
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "replay-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL,
+                FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a successful move and the tile spawned after it. Call it
+     * after board.move(direction) and board.addRandomTile().
+     *
+     * @param direction direction of the move
+     * @param board board after the move and the spawn
+     * @throws IOException if the background thread failed to write
+     */
+    public void record(Direction direction, Board board) throws IOException {
+        checkFailure();
+        int spawn = board.getLastSpawnIndex();
+        int exponent = spawn < 0 ? 0
+                : Integer.numberOfTrailingZeros(board.getLastSpawnValue());
+
+        synchronized (this) {
+            pendingLog = ensureRemaining(pendingLog, ReplayFile.MOVE_SIZE);
+            pendingLog.put((byte) (direction.ordinal() | exponent << 2));
+            pendingLog.put((byte) Math.max(spawn, 0));
+            offset += ReplayFile.MOVE_SIZE;
+
+            if (++moveCount % keyframeInterval == 0) {
+                pendingIndex = ensureRemaining(pendingIndex,
+                        ReplayFile.keyframeSize(size));
+                pendingIndex.putLong(moveCount);
+                pendingIndex.putLong(offset);
+                pendingIndex.putLong(board.getScore());
+                putTiles(pendingIndex, board);
+            }
+        }
+    }
+
+    /**
+     * Writes everything recorded so far. The log is written before the
+     * index, so a keyframe never points past the end of the log.
+     *
+     * @throws IOException if the files can't be written
+     */
+    public void flush() throws IOException {
+        checkFailure();
+        synchronized (writeLock) {
+
+            // Swap buffers, so record() can go on while this thread writes
+            synchronized (this) {
+                ByteBuffer swap = pendingLog;
+                pendingLog = writingLog;
+                writingLog = swap;
+                swap = pendingIndex;
+                pendingIndex = writingIndex;
+                writingIndex = swap;
+            }
+            drain(log, writingLog);
+            drain(index, writingIndex);
+        }
+    }
+
+    // Return the number of moves recorded so far
+    public synchronized long getMoveCount() {
+        return moveCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            try {
+                log.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Flushes on the background thread, keeping the first error for later.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Writing the replay failed", e);
+        }
+    }
+
+    /**
+     * Puts the exponent of every tile of a board, one byte each.
+     */
+    private void putTiles(ByteBuffer buffer, Board board) {
+        buffer.put(board.getCells());
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns a buffer with room for some more bytes, growing it if needed.
+     */
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer larger = newBuffer(Math.max(buffer.capacity() * 2,
+                buffer.position() + bytes));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,199 @@
+package game2048.io;
+
+/**
+ * This class saves boards in the text format of Board.saveBoard, without
+ * making the caller wait for the disk. save() only copies the tiles and
+ * the score; the file is written later by a background thread.
+ *
+ * Every file is first written to a temporary file next to it, forced to
+ * disk and then renamed over the old one, so a crash in the middle of a
+ * save leaves either the old board or the new one, never half of a board.
+ * Saves to a file that is still waiting to be written are merged into one,
+ * so saving after every move costs at most one write at a time.
+ */
+
+import game2048.Board;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author David
+ */
+public class SaveService implements Closeable {
+
+    // Saves waiting to be written, by file, guarded by this
+    private final Map<Path, Pending> queued = new HashMap<>();
+
+    private final ExecutorService writer;
+
+    // Whether close() was called, guarded by this
+    private boolean closed;
+
+    /**
+     * Starts the background thread.
+     */
+    public SaveService() {
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "board-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Saves a copy of the board as it is now. If an earlier save of the
+     * same file hasn't been written yet, it is replaced by this one and both
+     * get the same future.
+     *
+     * @param board board to save
+     * @param file file to write
+     * @return completes with the file once it is written, or with the error
+     * @throws IllegalStateException if the service was closed
+     */
+    public CompletableFuture<Path> save(Board board, Path file) {
+        Snapshot snapshot = new Snapshot(board.GRID_SIZE,
+                board.getCells().clone(), board.getScore());
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Save of " + file
+                        + " after the save service was closed");
+            }
+            Pending pending = queued.get(file);
+            if (pending != null) {
+                pending.snapshot = snapshot;
+                return pending.future;
+            }
+            pending = new Pending(snapshot);
+            queued.put(file, pending);
+            writer.execute(() -> write(file));
+            return pending.future;
+        }
+    }
+
+    /**
+     * Writes the latest snapshot queued for a file.
+     */
+    private void write(Path file) {
+        Pending pending;
+        synchronized (this) {
+            pending = queued.remove(file);
+        }
+        try {
+            Snapshot snapshot = pending.snapshot;
+            writeAtomically(file, snapshot.size, snapshot.cells,
+                    snapshot.score);
+            pending.future.complete(file);
+        } catch (IOException | RuntimeException e) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Writes a board in the text format to a temporary file and renames it
+     * over the target.
+     *
+     * @param file file to write
+     * @param size size of the board
+     * @param cells tile exponents, indexed like Board.getCells()
+     * @param score score of the board
+     * @throws IOException if the file can't be written
+     */
+    public static void writeAtomically(Path file, int size, byte[] cells,
+            long score) throws IOException {
+        StringBuilder text = new StringBuilder(24 + cells.length * 6);
+        text.append(size).append('\n').append(score).append('\n');
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                text.append(Board.valueOf(cells[row * size + column]))
+                        .append(' ');
+            }
+            text.append('\n');
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(text.toString());
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(),
+                absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes every queued save, then stops the background thread. Call it
+     * before the program exits; saving afterwards is an error.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tiles and score of a board at the time save() was called.
+     */
+    private static class Snapshot {
+
+        private final int size;
+        private final byte[] cells;
+        private final long score;
+
+        Snapshot(int size, byte[] cells, long score) {
+            this.size = size;
+            this.cells = cells;
+            this.score = score;
+        }
+    }
+
+    /**
+     * A save that hasn't been written yet.
+     */
+    private static class Pending {
+
+        private final CompletableFuture<Path> future =
+                new CompletableFuture<>();
+        private Snapshot snapshot;
+
+        Pending(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
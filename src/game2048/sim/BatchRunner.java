@@ -0,0 +1,343 @@
+package game2048.sim;
+
+/**
+ * This program plays many games of 2048 without a window. Every game gets
+ * its own seed (the base seed plus the game number) and its own move
+ * strategy, and the games are spread over a thread pool. Each result is
+ * written as soon as its game is done, as CSV or as one JSON object per
+ * line.
+ *
+ * The same --seed plays the same games every time, as long as expectimax
+ * has no --budget and no --cache. A time budget makes the search depth
+ * depend on how fast the machine is, and a shared cache on which game got
+ * to a position first.
+ *
+ * Nothing here touches JavaFX. Board and the AI players only use the
+ * compile time constants of GameConstants, which javac copies into them,
+ * so neither the toolkit nor the fonts and colors ever get loaded.
+ *
+ * Usage: java game2048.sim.BatchRunner [options]
+ *   --games N        number of games (100)
+ *   --threads N      games played at once (number of cores)
+ *   --seed N         seed of the first game (0)
+ *   --size N         board size, 3 to 16 (4)
+ *   --strategy NAME  random, expectimax or montecarlo (random)
+ *   --depth N        expectimax search depth (3)
+ *   --budget N       expectimax time per move in milliseconds (no limit)
+ *   --playouts N     Monte Carlo play-outs per move (100)
+ *   --format NAME    csv or json (csv)
+ *   --out FILE       file to write to (standard output)
+ *   --replays DIR    record every game to DIR/game-N.replay (off)
+ *   --cache MB       expectimax evaluation cache shared by all games (off)
+ *   --cache-file F   load the cache from F if it exists, save it there at
+ *                    the end (off)
+ */
+
+import game2048.Board;
+import game2048.Direction;
+import game2048.GameConstants;
+import game2048.ai.EvaluationCache;
+import game2048.ai.Expectimax;
+import game2048.ai.MonteCarlo;
+import game2048.ai.MoveStrategy;
+import game2048.io.ReplayFile;
+import game2048.io.ReplayWriter;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author David
+ */
+public class BatchRunner {
+
+    // Settings, filled in from the command line
+    private int games = 100;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 0;
+    private int size = 4;
+    private String strategy = "random";
+    private int depth = Expectimax.DEFAULT_DEPTH;
+    private long budgetMillis = Long.MAX_VALUE;
+    private int playouts = MonteCarlo.DEFAULT_PLAYOUTS;
+    private String format = "csv";
+    private String out = null;
+    private Path replays = null;
+    private long cacheMegabytes = 0;
+    private Path cacheFile = null;
+
+    // Evaluation cache shared by the expectimax games, null if off
+    private EvaluationCache cache;
+
+    /**
+     * Runs the games.
+     *
+     * @param args command line options, see the class comment
+     * @throws java.io.IOException if the results can't be written
+     * @throws java.lang.InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.processArgs(args);
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        runner.run();
+    }
+
+    /**
+     * Prints what went wrong with the command line and how to use it, then
+     * exits.
+     *
+     * @param error what went wrong
+     */
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: BatchRunner [--games N] [--threads N]"
+                + " [--seed N] [--size " + GameConstants.MIN_BOARD_SIZE
+                + "-" + GameConstants.MAX_BOARD_SIZE + "]"
+                + " [--strategy random|expectimax|montecarlo] [--depth N]"
+                + " [--budget MS] [--playouts N] [--format csv|json]"
+                + " [--out FILE] [--replays DIR] [--cache MB]"
+                + " [--cache-file FILE]");
+        System.exit(-1);
+    }
+
+    /**
+     * Reads the command line options.
+     *
+     * @param args command line options
+     */
+    private void processArgs(String[] args) {
+        for (int index = 0; index < args.length; index++) {
+            String option = args[index];
+            if (index + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for "
+                        + option);
+            }
+            String value = args[++index];
+            try {
+                switch (option) {
+                    case "--games":
+                        games = Integer.parseInt(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--size":
+                        size = Integer.parseInt(value);
+                        break;
+                    case "--strategy":
+                        strategy = value;
+                        break;
+                    case "--depth":
+                        depth = Integer.parseInt(value);
+                        break;
+                    case "--budget":
+                        budgetMillis = Long.parseLong(value);
+                        break;
+                    case "--playouts":
+                        playouts = Integer.parseInt(value);
+                        break;
+                    case "--format":
+                        format = value;
+                        break;
+                    case "--out":
+                        out = value;
+                        break;
+                    case "--replays":
+                        replays = Paths.get(value);
+                        break;
+                    case "--cache":
+                        cacheMegabytes = Long.parseLong(value);
+                        break;
+                    case "--cache-file":
+                        cacheFile = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for "
+                        + option + ": " + value);
+            }
+        }
+        if (!format.equals("csv") && !format.equals("json")) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        if (games < 0 || threads < 1) {
+            throw new IllegalArgumentException("Bad games or threads");
+        }
+        if (depth < 1 || budgetMillis < 1) {
+            throw new IllegalArgumentException("Bad depth or budget");
+        }
+
+        // Same sizes as the game window
+        if (size < GameConstants.MIN_BOARD_SIZE
+                || size > GameConstants.MAX_BOARD_SIZE) {
+            throw new IllegalArgumentException("Board size must be from "
+                    + GameConstants.MIN_BOARD_SIZE + " to "
+                    + GameConstants.MAX_BOARD_SIZE);
+        }
+        if (replays != null && size > ReplayFile.MAX_SIZE) {
+            throw new IllegalArgumentException("Replays only hold boards up"
+                    + " to " + ReplayFile.MAX_SIZE + "x" + ReplayFile.MAX_SIZE);
+        }
+        if (cacheMegabytes < 0
+                || (cacheFile != null && cacheMegabytes == 0)) {
+            throw new IllegalArgumentException("--cache-file needs --cache");
+        }
+        if (!strategy.equals("random") && size != 4) {
+            throw new IllegalArgumentException(strategy
+                    + " only plays 4x4 boards");
+        }
+
+        // Fail early on unknown strategies, rather than in every game
+        newStrategy(seed);
+    }
+
+    /**
+     * Plays all games and writes their results as they finish.
+     */
+    private void run() throws IOException, InterruptedException {
+        if (replays != null) {
+            Files.createDirectories(replays);
+        }
+        if (cacheFile != null && Files.exists(cacheFile)) {
+            cache = EvaluationCache.load(cacheFile);
+        } else if (cacheMegabytes > 0) {
+            cache = new EvaluationCache(cacheMegabytes << 20);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        OutputStream stream = out == null ? System.out
+                : new FileOutputStream(out);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(stream, StandardCharsets.UTF_8)))) {
+
+            CompletionService<GameResult> results =
+                    new ExecutorCompletionService<>(executor);
+            for (int game = 0; game < games; game++) {
+                final int number = game;
+                results.submit(() -> play(number, seed + number));
+            }
+
+            if (format.equals("csv")) {
+                writer.println(GameResult.CSV_HEADER);
+            }
+            for (int game = 0; game < games; game++) {
+                GameResult result = results.take().get();
+                writer.println(format.equals("csv") ? result.toCsv()
+                        : result.toJson());
+                writer.flush();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("A game failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        if (cacheFile != null) {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            cache.snapshot(cacheFile);
+        }
+    }
+
+    /**
+     * Plays a single game to the end.
+     *
+     * @param number game number
+     * @param gameSeed seed of the board and the strategy
+     * @return result of the game
+     * @throws IOException if the replay can't be written
+     */
+    private GameResult play(int number, long gameSeed) throws IOException {
+        long start = System.nanoTime();
+        Board board = new Board(size, new Random(gameSeed));
+        MoveStrategy player = newStrategy(gameSeed);
+        ReplayWriter replay = replays == null ? null
+                : new ReplayWriter(replays.resolve("game-" + number
+                        + ".replay"), gameSeed, board);
+
+        int moves = 0;
+        try {
+            while (!board.isGameOver()) {
+                Direction direction = player.chooseMove(board);
+                if (direction == null || !board.move(direction)) {
+                    break;
+                }
+                board.addRandomTile();
+                if (replay != null) {
+                    replay.record(direction, board);
+                }
+                moves++;
+            }
+        } finally {
+            if (replay != null) {
+                replay.close();
+            }
+        }
+
+        int maxExponent = 0;
+        for (byte exponent : board.getCells()) {
+            maxExponent = Math.max(maxExponent, exponent);
+        }
+        return new GameResult(number, gameSeed, board.getScore(),
+                Board.valueOf(maxExponent), moves, System.nanoTime() - start);
+    }
+
+    /**
+     * Creates the strategy of one game.
+     *
+     * @param gameSeed seed of the game
+     * @return a new strategy
+     */
+    private MoveStrategy newStrategy(long gameSeed) {
+        switch (strategy) {
+            case "random":
+                Random random = new Random(~gameSeed);
+                Direction[] directions = Direction.values();
+                return board -> {
+                    Direction direction;
+                    do {
+                        direction = directions[random.nextInt(
+                                directions.length)];
+                    } while (!board.canMove(direction));
+                    return direction;
+                };
+            case "expectimax":
+                Expectimax search = new Expectimax(depth,
+                        Expectimax.DEFAULT_TABLE_BITS);
+                search.setCache(cache);
+                return board -> search.bestMove(board, budgetMillis);
+            case "montecarlo":
+
+                // The games already keep every thread busy
+                MonteCarlo player = new MonteCarlo(playouts,
+                        MonteCarlo.DEFAULT_BATCH_SIZE, null, gameSeed);
+                return player::bestMove;
+            default:
+                throw new IllegalArgumentException("Unknown strategy "
+                        + strategy);
+        }
+    }
+}
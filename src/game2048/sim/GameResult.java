@@ -0,0 +1,84 @@
+package game2048.sim;
+
+/**
+ * This class holds the outcome of one headless game, and knows how to
+ * write itself as a CSV row or as a line of JSON.
+ */
+
+import java.util.Locale;
+
+/**
+ *
+ * @author David
+ */
+public class GameResult {
+
+    // Column names of toCsv()
+    public static final String CSV_HEADER =
+            "game,seed,score,max_tile,moves,wall_ms";
+
+    private final int game;
+    private final long seed;
+    private final long score;
+    private final long maxTile;
+    private final int moves;
+    private final long wallNanos;
+
+    /**
+     * Creates a result.
+     *
+     * @param game game number
+     * @param seed seed the game was played with
+     * @param score final score
+     * @param maxTile largest tile on the final board
+     * @param moves number of moves made
+     * @param wallNanos time the game took, in nanoseconds
+     */
+    public GameResult(int game, long seed, long score, long maxTile,
+            int moves, long wallNanos) {
+        this.game = game;
+        this.seed = seed;
+        this.score = score;
+        this.maxTile = maxTile;
+        this.moves = moves;
+        this.wallNanos = wallNanos;
+    }
+
+    // Return the result as a CSV row, in the order of CSV_HEADER
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%.3f", game, seed,
+                score, maxTile, moves, wallNanos / 1e6);
+    }
+
+    // Return the result as a single line JSON object
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"game\":%d,\"seed\":%d,"
+                + "\"score\":%d,\"max_tile\":%d,\"moves\":%d,"
+                + "\"wall_ms\":%.3f}", game, seed, score, maxTile, moves,
+                wallNanos / 1e6);
+    }
+
+    public int getGame() {
+        return game;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    public long getMaxTile() {
+        return maxTile;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+}
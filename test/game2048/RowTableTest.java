@@ -0,0 +1,317 @@
+package game2048;
+
+/**
+ * Checks the RowTable against the move loops Board had before the table,
+ * for every possible 4 tile row. The loops are kept below exactly as they
+ * were, so the table is compared with the code it replaced rather than
+ * with anything that was changed along with it. Every row is put on an
+ * otherwise empty 4x4 grid, as a row and as a column, and slid both ways.
+ *
+ * The narrower tables of 2 and 3 tile rows are checked the same way, on
+ * grids of their width.
+ *
+ * Rows holding a 2^15 tile are skipped: the table leaves those tiles alone,
+ * and Board never looks such rows up.
+ */
+
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author David
+ */
+public class RowTableTest {
+
+    @Test
+    public void rowsMatchTheOldLoops() {
+        for (int row = 0; row < RowTable.ROW_COUNT; row++) {
+            if (hasTopTile(row)) {
+                continue;
+            }
+            for (boolean towardStart : new boolean[]{true, false}) {
+                Baseline baseline = new Baseline(RowTable.ROW_LENGTH);
+                baseline.grid[0] = unpack(row);
+                baseline.moveHorizontal(towardStart);
+                check(row, towardStart, baseline.grid[0], baseline.score);
+            }
+        }
+    }
+
+    @Test
+    public void columnsMatchTheOldLoops() {
+        for (int row = 0; row < RowTable.ROW_COUNT; row++) {
+            if (hasTopTile(row)) {
+                continue;
+            }
+            for (boolean towardStart : new boolean[]{true, false}) {
+                Baseline baseline = new Baseline(RowTable.ROW_LENGTH);
+                int[] line = unpack(row);
+                for (int index = 0; index < line.length; index++) {
+                    baseline.grid[index][0] = line[index];
+                }
+                baseline.moveVertical(towardStart);
+
+                int[] column = new int[line.length];
+                for (int index = 0; index < line.length; index++) {
+                    column[index] = baseline.grid[index][0];
+                }
+                check(row, towardStart, column, baseline.score);
+            }
+        }
+    }
+
+    @Test
+    public void everyWidthMatchesTheOldLoops() {
+        for (int width = RowTable.MIN_WIDTH; width <= RowTable.MAX_WIDTH;
+                width++) {
+            RowTable table = RowTable.forWidth(width);
+            for (int row = 0; row < 1 << (width * 4); row++) {
+                if (hasTopTile(row)) {
+                    continue;
+                }
+                for (boolean towardStart : new boolean[]{true, false}) {
+                    Baseline baseline = new Baseline(width);
+                    baseline.grid[0] = Arrays.copyOf(unpack(row), width);
+                    baseline.moveHorizontal(towardStart);
+
+                    int entry = towardStart ? table.slideTowardStart(row)
+                            : table.slideTowardEnd(row);
+                    String name = width + (towardStart ? " start " : " end ")
+                            + Integer.toHexString(row);
+                    assertArrayEquals(name, baseline.grid[0], Arrays.copyOf(
+                            unpack(RowTable.result(entry)), width));
+                    assertEquals(name, baseline.score, table.scoreOf(row));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the table entry of a row with what the old loops made of it.
+     */
+    private static void check(int row, boolean towardStart, int[] slid,
+            int score) {
+        int entry = towardStart ? RowTable.towardStart(row)
+                : RowTable.towardEnd(row);
+        String name = (towardStart ? "start " : "end ")
+                + Integer.toHexString(row);
+        assertArrayEquals(name, slid, unpack(RowTable.result(entry)));
+        assertEquals(name, !Arrays.equals(slid, unpack(row)),
+                RowTable.changed(entry));
+        assertEquals(name, score, RowTable.score(row));
+    }
+
+    /**
+     * Turns a packed row into tile values.
+     */
+    private static int[] unpack(int row) {
+        int[] line = new int[RowTable.ROW_LENGTH];
+        for (int index = 0; index < line.length; index++) {
+            int exponent = (row >>> (index * 4)) & RowTable.MAX_EXPONENT;
+            line[index] = exponent == 0 ? 0 : 1 << exponent;
+        }
+        return line;
+    }
+
+    private static boolean hasTopTile(int row) {
+        for (int index = 0; index < RowTable.ROW_LENGTH; index++) {
+            if (((row >>> (index * 4)) & RowTable.MAX_EXPONENT)
+                    == RowTable.MAX_EXPONENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The grid, score and move loops of Board before the RowTable. The
+     * loops are copied unchanged.
+     */
+    private static class Baseline {
+
+        private final int GRID_SIZE;
+        private final int[][] grid;
+        private final String[][] newTiles;
+        private int score;
+
+        Baseline(int size) {
+            GRID_SIZE = size;
+            grid = new int[size][size];
+            newTiles = new String[size][size];
+        }
+
+        /**
+         * Moves all tiles up / down.
+         *
+         * @param up up / down
+         * @return successful move
+         */
+        public boolean moveVertical(boolean up) {
+
+            // We gotta move twice, but only merge once.
+            int times = 0;
+            while (times++ < 2) {
+
+                // Move tiles up / down where possible
+                for (int column = 0; column < GRID_SIZE; column++) {
+                    for (int row = up ? 0 : GRID_SIZE - 1;
+                            up ? row < GRID_SIZE : row > -1;
+                            row += up ? 1 : -1) {
+
+                        // Just move the tiles up / down, making sure zeroes
+                        // are inserted after movement
+                        if (grid[row][column] == 0 &&
+                                row != (up ? GRID_SIZE - 1 : 0)) {
+
+                            for (int incrow = 1;
+                                    up ? row + incrow < GRID_SIZE :
+                                         row - incrow > -1; incrow++) {
+
+                                int newRow = up ? row + incrow : row - incrow;
+                                if (grid[newRow][column] != 0) {
+                                    grid[row][column] = grid[newRow][column];
+                                    grid[newRow][column] = 0;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+
+                if (times == 2) break;
+
+                // Then check for mergability
+                for (int column = 0; column < GRID_SIZE; column++) {
+                    for (int row = up ? 0 : GRID_SIZE - 1;
+                            up ? row < GRID_SIZE - 1 : row > 0;
+                            row += up ? 1 : -1) {
+
+                        if (grid[row][column] != 0) {
+
+                            // Check for adjacent merges
+                            int nextRow = up ? row + 1 : row - 1;
+                            if (grid[row][column] == grid[nextRow][column]) {
+                                newTiles[row][column] = "merge";
+                                grid[row][column] += grid[nextRow][column];
+                                score += grid[row][column];
+                                grid[nextRow][column] = 0;
+                                continue;
+                            }
+
+                            // Check for non-adjacent merges
+                            for (int incrow = 1;
+                                    up ? row + incrow < GRID_SIZE :
+                                         row - incrow > -1; incrow++) {
+
+                                int newRow = up ? row + incrow : row - incrow;
+
+                                // If there's a zero in between, don't bother
+                                if (grid[newRow][column] != 0) {
+                                    break;
+                                }
+
+                                // Otherwise if they match, merge time
+                                if (grid[row][column] == grid[newRow][column]) {
+                                    newTiles[row][column] = "merge";
+                                    grid[row][column] += grid[newRow][column];
+                                    score += grid[row][column];
+                                    grid[newRow][column] = 0;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves all tiles left / right.
+         *
+         * @param left left / right
+         * @return successful move
+         */
+        public boolean moveHorizontal(boolean left) {
+
+            // We gotta move twice, but only merge once.
+            int times = 0;
+            while (times++ < 2) {
+
+                // Move tiles left / right where possible
+                for (int row = 0; row < GRID_SIZE; row++) {
+                    for (int column = left ? 0 : GRID_SIZE - 1;
+                            left ? column < GRID_SIZE : column > -1;
+                            column += left ? 1 : -1) {
+
+                        // Just move the tiles left / right, making sure zeroes
+                        // are inserted after movement
+                        if (grid[row][column] == 0 &&
+                                column != (left ? GRID_SIZE - 1 : 0)) {
+
+                            for (int inccol = 1;
+                                    left ? column + inccol < GRID_SIZE :
+                                         column - inccol > -1; inccol++) {
+
+                                int newCol = left ? column + inccol : column - inccol;
+                                if (grid[row][newCol] != 0) {
+                                    grid[row][column] = grid[row][newCol];
+                                    grid[row][newCol] = 0;
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+
+                if (times == 2) break;
+
+                // Then check for mergability
+                for (int row = 0; row < GRID_SIZE; row++) {
+                    for (int column = left ? 0 : GRID_SIZE - 1;
+                            left ? column < GRID_SIZE - 1 : column > 0;
+                            column += left ? 1 : -1) {
+
+                        if (grid[row][column] != 0) {
+
+                            // Check for adjacent merges
+                            int nextCol = left ? column + 1 : column - 1;
+                            if (grid[row][column] == grid[row][nextCol]) {
+                                newTiles[row][column] = "merge";
+                                grid[row][column] += grid[row][nextCol];
+                                score += grid[row][column];
+                                grid[row][nextCol] = 0;
+                                continue;
+                            }
+
+                            // Check for non-adjacent merges
+                            for (int inccol = 1;
+                                    left ? column + inccol < GRID_SIZE :
+                                         column - inccol > -1; inccol++) {
+
+                                int newCol = left ? column + inccol :
+                                        column - inccol;
+
+                                // If there's a zero in between, don't bother
+                                if (grid[row][newCol] != 0) {
+                                    break;
+                                }
+
+                                // Otherwise if they match, merge time
+                                if (grid[row][column] == grid[row][newCol]) {
+                                    newTiles[row][column] = "merge";
+                                    grid[row][column] += grid[row][newCol];
+                                    score += grid[row][column];
+                                    grid[row][newCol] = 0;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package game2048.ai;
+
+/**
+ * Checks that ParallelExpectimax searches the same tree as Expectimax. The
+ * positions come from a seeded game, so they are the same on every run.
+ * With one thread the tasks fill the table in a fixed order, and both
+ * searches have to pick the same move and count the same nodes on every
+ * position.
+ */
+
+import game2048.BitBoard;
+import game2048.Direction;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author David
+ */
+public class ParallelExpectimaxTest {
+
+    // Positions to compare, and how deep to search them
+    private static final int POSITIONS = 100;
+    private static final int DEPTH = 3;
+
+    // No time limit, every search runs to its full depth
+    private static final long NO_BUDGET = Long.MAX_VALUE;
+
+    @Test
+    public void picksTheSameMovesAsExpectimax() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            Random random = new Random(2048);
+            BitBoard board = new BitBoard(random);
+            for (int position = 0; position < POSITIONS; position++) {
+                if (board.isGameOver()) {
+                    board = new BitBoard(random);
+                }
+                long packed = board.getBoard();
+                Expectimax single = new Expectimax(DEPTH,
+                        Expectimax.DEFAULT_TABLE_BITS);
+                ParallelExpectimax parallel = new ParallelExpectimax(DEPTH,
+                        Expectimax.DEFAULT_TABLE_BITS,
+                        ParallelExpectimax.DEFAULT_SPLIT_LEVELS, pool);
+
+                Direction move = single.bestMove(packed, NO_BUDGET);
+                assertEquals(Long.toHexString(packed), move,
+                        parallel.bestMove(packed, NO_BUDGET));
+                assertEquals(Long.toHexString(packed),
+                        single.getNodeCount(), parallel.getNodeCount());
+
+                board.move(move);
+                board.addRandomTile();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}